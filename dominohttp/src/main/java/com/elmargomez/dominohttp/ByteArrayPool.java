@@ -0,0 +1,91 @@
+/*
+ * Copyright 2016 Elmar Rhex Gomez.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.elmargomez.dominohttp;
+
+import java.util.ArrayDeque;
+
+/**
+ * A shared pool of scratch byte arrays, bucketed by powers of two, so reading a body of
+ * unknown size does not allocate a new buffer every time it grows. The arrays handed out
+ * may be longer than asked for.
+ */
+public class ByteArrayPool {
+    private static final int DEFAULT_POOL_SIZE = 256 * 1024;
+    private static final int MIN_BUCKET_SHIFT = 10;
+    private static final int MAX_BUCKET_SHIFT = 17;
+
+    private static ByteArrayPool pool = new ByteArrayPool(DEFAULT_POOL_SIZE);
+
+    private final ArrayDeque<byte[]>[] buckets;
+    private final int limitSize;
+    private int size;
+
+    @SuppressWarnings("unchecked")
+    public ByteArrayPool(int limitSize) {
+        this.limitSize = limitSize;
+        this.buckets = new ArrayDeque[MAX_BUCKET_SHIFT - MIN_BUCKET_SHIFT + 1];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new ArrayDeque<>();
+        }
+    }
+
+    public static ByteArrayPool getPool() {
+        return pool;
+    }
+
+    /**
+     * @return an array of at least {@code length} bytes.
+     */
+    public synchronized byte[] getBuf(int length) {
+        int shift = bucketShift(length);
+        if (shift > MAX_BUCKET_SHIFT) {
+            return new byte[length];
+        }
+
+        byte[] buf = buckets[shift - MIN_BUCKET_SHIFT].poll();
+        if (buf == null) {
+            return new byte[1 << shift];
+        }
+        size -= buf.length;
+        return buf;
+    }
+
+    /**
+     * Gives an array back to the pool. It is dropped if the pool is full or if it was not
+     * handed out by {@link #getBuf(int)}.
+     */
+    public synchronized void returnBuf(byte[] buf) {
+        if (buf == null || Integer.bitCount(buf.length) != 1 || size + buf.length > limitSize) {
+            return;
+        }
+
+        int shift = bucketShift(buf.length);
+        if (shift < MIN_BUCKET_SHIFT || shift > MAX_BUCKET_SHIFT) {
+            return;
+        }
+        buckets[shift - MIN_BUCKET_SHIFT].push(buf);
+        size += buf.length;
+    }
+
+    private static int bucketShift(int length) {
+        if (length <= 1 << MIN_BUCKET_SHIFT) {
+            return MIN_BUCKET_SHIFT;
+        }
+        return 32 - Integer.numberOfLeadingZeros(length - 1);
+    }
+}
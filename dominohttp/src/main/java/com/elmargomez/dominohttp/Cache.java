@@ -16,6 +16,9 @@
 
 package com.elmargomez.dominohttp;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.Map;
 
 public interface Cache {
@@ -24,10 +27,45 @@ public interface Cache {
 
     Data get(String cacheKey);
 
+    /**
+     * @return the entry without its body, {@link Data#data} is null, or null if there is
+     * no such entry. Unlike {@link #get(String)} it does not have to read the body.
+     */
+    Data getMetadata(String cacheKey);
+
+    /**
+     * @return the decoded body of the entry as a stream the caller closes, or null if
+     * there is no such entry.
+     */
+    InputStream openStream(String cacheKey) throws IOException;
+
     void remove(String k);
 
+    /**
+     * Updates the ttl and soft ttl of the entry from the data, e.g. after a 304 Not
+     * Modified, without rewriting its body.
+     */
+    void refresh(String key, Data data);
+
     void initialize();
 
+    /**
+     * Opens an entry whose body is written as a stream, e.g. while it is downloaded. The
+     * entry is only visible once {@link Writer#commit()} is called. The body of the given
+     * data is ignored.
+     */
+    Writer edit(String key, Data data) throws IOException;
+
+    interface Writer {
+
+        OutputStream getStream();
+
+        void commit() throws IOException;
+
+        void abort();
+
+    }
+
     class Data {
         public Map<String, String> header;
         public long ttl;
@@ -52,6 +90,21 @@ public interface Cache {
         public boolean needsRefresh() {
             return softTTL < System.currentTimeMillis();
         }
+
+        /**
+         * @return the value of the response header, ignoring the case of its name.
+         */
+        public String getHeader(String name) {
+            if (header == null) {
+                return null;
+            }
+            for (Map.Entry<String, String> entry : header.entrySet()) {
+                if (name.equalsIgnoreCase(entry.getKey())) {
+                    return entry.getValue();
+                }
+            }
+            return null;
+        }
     }
 
 }
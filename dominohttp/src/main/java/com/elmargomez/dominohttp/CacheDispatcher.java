@@ -18,24 +18,32 @@ package com.elmargomez.dominohttp;
 
 import com.elmargomez.dominohttp.request.Request;
 
-import java.util.concurrent.BlockingQueue;
+import java.io.File;
+import java.io.IOException;
+
 
 public class CacheDispatcher extends Thread {
 
-    private BlockingQueue<Request> networkRequest;
-    private BlockingQueue<Request> cachedRequest;
+    private NetworkQueue networkRequest;
+    private CacheQueue cachedRequest;
     private Cache cache;
     private ResponseSender responseSender;
+    private InFlightRequests inFlight;
+    private DispatcherPool pool;
 
     private boolean isInterrupted;
+    private volatile boolean isBusy;
 
-    public CacheDispatcher(BlockingQueue<Request> networkRequest,
-                           BlockingQueue<Request> cachedRequest, Cache cache,
-                           ResponseSender responseSender) {
+    public CacheDispatcher(NetworkQueue networkRequest,
+                           CacheQueue cachedRequest, Cache cache,
+                           ResponseSender responseSender, InFlightRequests inFlight,
+                           DispatcherPool pool) {
         this.networkRequest = networkRequest;
         this.cachedRequest = cachedRequest;
         this.cache = cache;
         this.responseSender = responseSender;
+        this.inFlight = inFlight;
+        this.pool = pool;
     }
 
     @Override
@@ -43,8 +51,10 @@ public class CacheDispatcher extends Thread {
         cache.initialize();
         while (true) {
             Request request = null;
+            isBusy = false;
             try {
                 request = cachedRequest.take();
+                isBusy = true;
                 DominoLog.debug("New Cache Request [id: " + request.getRequestKey() + "]");
             } catch (InterruptedException e) {
                 if (isInterrupted) {
@@ -53,24 +63,107 @@ public class CacheDispatcher extends Thread {
             }
 
             if (request.isCanceled()) {
-                // We need to skip this request.
+                // We need to skip this request, a duplicate may still be waiting for it.
+                Request next = inFlight.promote(request);
+                if (next != null && !cachedRequest.requeue(next)) {
+                    stopped(next);
+                }
                 continue;
             }
 
-            Cache.Data data = cache.get(request.getRequestKey());
+            if (request.hasExpired()) {
+                responseSender.failure(request, inFlight.finish(request), Request.ERROR_TIMEOUT);
+                continue;
+            }
+
+            Cache.Data data = Variants.lookup(cache, request);
             if (data == null || data.isExpired()) {
-                networkRequest.add(request);
+                // An expired entry may still be valid, the server can tell with a 304.
+                request.setCacheEntry(data);
+                if (!forward(request)) {
+                    break;
+                }
+                continue;
+            }
+
+            if (!request.isDownload()) {
+                responseSender.success(request, data.data);
+            } else if (!deliverDownload(request)) {
+                request.setCacheEntry(null);
+                if (!forward(request)) {
+                    break;
+                }
                 continue;
             }
 
-            responseSender.success(request, data.data);
             if (data.needsRefresh()) {
-                request.tagHolder.add("refresh-cache");
-                networkRequest.add(request);
+                responseSender.success(inFlight.detachFollowers(request), data.data);
+                request.setRefreshing(true);
+                request.setCacheEntry(data);
+                if (!forward(request)) {
+                    break;
+                }
+            } else {
+                responseSender.success(inFlight.finish(request), data.data);
             }
         }
     }
 
+    /**
+     * Delivers a cached download, its body copied from the cache to the file.
+     *
+     * @return false if the body could not be read and the request has to go to the network.
+     */
+    private boolean deliverDownload(Request request) {
+        File file;
+        try {
+            file = Network.copyFromCache(cache, request);
+        } catch (IOException e) {
+            DominoLog.debug("Unable to read the cached download [id: "
+                    + request.getRequestKey() + ", " + e + "]");
+            return false;
+        }
+        if (file == null) {
+            return false;
+        }
+        responseSender.success(request, file);
+        return true;
+    }
+
+    /**
+     * Hands the request to the network stage, waiting for room if the queue is bounded.
+     * It fails if the queue stopped meanwhile.
+     *
+     * @return false if the dispatcher was canceled meanwhile.
+     */
+    private boolean forward(Request request) {
+        try {
+            if (networkRequest.add(request)) {
+                pool.maybeGrow();
+            } else {
+                stopped(request);
+            }
+            return true;
+        } catch (InterruptedException e) {
+            // Keep the request where the queue can still drain it.
+            if (!networkRequest.requeue(request)) {
+                stopped(request);
+            }
+            return !isInterrupted;
+        }
+    }
+
+    private void stopped(Request request) {
+        responseSender.failure(request, inFlight.finish(request), Request.ERROR_QUEUE_STOPPED);
+    }
+
+    /**
+     * @return true while a request taken from the cache queue is being handled.
+     */
+    public boolean isBusy() {
+        return isBusy;
+    }
+
     public void cancel() {
         isInterrupted = true;
         interrupt();
@@ -0,0 +1,247 @@
+/*
+ * Copyright 2016 Elmar Rhex Gomez.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.elmargomez.dominohttp;
+
+import java.util.Map;
+
+/**
+ * The freshness of a response as seen by a private cache, following RFC 7234.
+ * <p>
+ * The age is corrected for the transit time and for the skew between the server's clock
+ * and ours, so {@link #softTTL} and {@link #ttl} are instants of the local clock. Since
+ * this cache is private, responses marked private are stored, while s-maxage and
+ * proxy-revalidate, which only bind shared caches, are ignored.
+ */
+public class CachePolicy {
+
+    /**
+     * False if the response must not be stored at all.
+     */
+    public boolean isStorable = true;
+    /**
+     * The instant the response turns stale and has to be revalidated.
+     */
+    public long softTTL;
+    /**
+     * The instant after which the stale response can not be served, even while it is
+     * being revalidated.
+     */
+    public long ttl;
+
+    /**
+     * @param requestTime  when the request was sent.
+     * @param responseTime when the response headers were received.
+     */
+    public static CachePolicy compute(Map<String, String> headers, long requestTime,
+                                      long responseTime) {
+        String cacheControl = null;
+        String date = null;
+        String expires = null;
+        String age = null;
+        String vary = null;
+        // One pass over the headers, whatever the case of their names.
+        for (Map.Entry<String, String> entry : headers.entrySet()) {
+            String name = entry.getKey();
+            if (name == null) {
+                continue;
+            }
+            if (name.equalsIgnoreCase("Cache-Control")) {
+                cacheControl = entry.getValue();
+            } else if (name.equalsIgnoreCase("Date")) {
+                date = entry.getValue();
+            } else if (name.equalsIgnoreCase("Expires")) {
+                expires = entry.getValue();
+            } else if (name.equalsIgnoreCase("Age")) {
+                age = entry.getValue();
+            } else if (name.equalsIgnoreCase("Vary")) {
+                vary = entry.getValue();
+            }
+        }
+
+        CachePolicy policy = new CachePolicy();
+        CacheControl directives = CacheControl.parse(cacheControl);
+        if (directives.noStore || (vary != null && vary.trim().equals("*"))) {
+            policy.isStorable = false;
+            return policy;
+        }
+
+        long dateValue = HttpDate.parse(date);
+        if (dateValue < 0) {
+            dateValue = responseTime;
+        }
+
+        long lifetime;
+        if (directives.maxAge >= 0) {
+            lifetime = directives.maxAge * 1000;
+        } else if (expires != null) {
+            // An invalid Expires, like "0", means already expired.
+            long expiresValue = HttpDate.parse(expires);
+            lifetime = expiresValue < 0 ? 0 : Math.max(0, expiresValue - dateValue);
+        } else {
+            lifetime = 0;
+        }
+
+        long apparentAge = Math.max(0, responseTime - dateValue);
+        long correctedAge = parseSeconds(age) * 1000 + (responseTime - requestTime);
+        long currentAge = Math.max(apparentAge, correctedAge);
+
+        policy.softTTL = directives.noCache
+                ? 0 : responseTime + Math.max(0, lifetime - currentAge);
+        policy.ttl = directives.noCache || directives.mustRevalidate
+                || directives.staleWhileRevalidate < 0
+                ? policy.softTTL : policy.softTTL + directives.staleWhileRevalidate * 1000;
+        return policy;
+    }
+
+    /**
+     * @return true if the stale entry may still answer a request whose revalidation
+     * failed, as allowed by its stale-if-error directive.
+     */
+    public static boolean canServeStaleOnError(Cache.Data data, long now) {
+        CacheControl directives = CacheControl.parse(data.getHeader("Cache-Control"));
+        if (directives.noCache || directives.mustRevalidate || directives.staleIfError < 0) {
+            return false;
+        }
+        return now <= data.softTTL + directives.staleIfError * 1000;
+    }
+
+    /**
+     * @return the delta-seconds value, or 0 if it is missing or invalid.
+     */
+    private static long parseSeconds(String value) {
+        if (value == null) {
+            return 0;
+        }
+        value = value.trim();
+        long seconds = CacheControl.number(value, 0, value.length());
+        return seconds < 0 ? 0 : seconds;
+    }
+
+    /**
+     * The Cache-Control directives of a response, parsed in one pass over the header
+     * without splitting it.
+     */
+    static class CacheControl {
+        boolean noStore;
+        boolean noCache;
+        boolean mustRevalidate;
+        long maxAge = -1;
+        long staleWhileRevalidate = -1;
+        long staleIfError = -1;
+
+        static CacheControl parse(String value) {
+            CacheControl directives = new CacheControl();
+            if (value == null) {
+                return directives;
+            }
+
+            int length = value.length();
+            int pos = 0;
+            while (pos < length) {
+                pos = skipWhitespace(value, pos);
+                int nameStart = pos;
+                while (pos < length && value.charAt(pos) != '=' && value.charAt(pos) != ','
+                        && value.charAt(pos) != ' ' && value.charAt(pos) != '\t') {
+                    pos++;
+                }
+                int nameEnd = pos;
+                pos = skipWhitespace(value, pos);
+
+                int argStart = -1;
+                int argEnd = -1;
+                if (pos < length && value.charAt(pos) == '=') {
+                    pos = skipWhitespace(value, pos + 1);
+                    if (pos < length && value.charAt(pos) == '"') {
+                        argStart = ++pos;
+                        while (pos < length && value.charAt(pos) != '"') {
+                            pos++;
+                        }
+                        argEnd = pos;
+                        pos++;
+                    } else {
+                        argStart = pos;
+                        while (pos < length && value.charAt(pos) != ','
+                                && value.charAt(pos) != ' ' && value.charAt(pos) != '\t') {
+                            pos++;
+                        }
+                        argEnd = pos;
+                    }
+                }
+                directives.apply(value, nameStart, nameEnd, argStart, argEnd);
+
+                while (pos < length && value.charAt(pos) != ',') {
+                    pos++;
+                }
+                pos++;
+            }
+            return directives;
+        }
+
+        private void apply(String value, int start, int end, int argStart, int argEnd) {
+            if (is(value, start, end, "no-store")) {
+                noStore = true;
+            } else if (is(value, start, end, "no-cache")) {
+                // A field-name list only restricts those fields, the body is still usable.
+                if (argStart < 0) {
+                    noCache = true;
+                }
+            } else if (is(value, start, end, "must-revalidate")) {
+                mustRevalidate = true;
+            } else if (argStart >= 0) {
+                if (is(value, start, end, "max-age")) {
+                    maxAge = number(value, argStart, argEnd);
+                } else if (is(value, start, end, "stale-while-revalidate")) {
+                    staleWhileRevalidate = number(value, argStart, argEnd);
+                } else if (is(value, start, end, "stale-if-error")) {
+                    staleIfError = number(value, argStart, argEnd);
+                }
+            }
+        }
+
+        private static boolean is(String value, int start, int end, String name) {
+            return end - start == name.length()
+                    && value.regionMatches(true, start, name, 0, name.length());
+        }
+
+        private static int skipWhitespace(String value, int pos) {
+            while (pos < value.length()
+                    && (value.charAt(pos) == ' ' || value.charAt(pos) == '\t')) {
+                pos++;
+            }
+            return pos;
+        }
+
+        /**
+         * @return the delta-seconds between the positions, capped at 2^31, or -1 if
+         * it is not a number.
+         */
+        static long number(String value, int start, int end) {
+            if (start >= end) {
+                return -1;
+            }
+            long result = 0;
+            for (int i = start; i < end; i++) {
+                char c = value.charAt(i);
+                if (c < '0' || c > '9') {
+                    return -1;
+                }
+                result = Math.min(Integer.MAX_VALUE + 1L, result * 10 + (c - '0'));
+            }
+            return result;
+        }
+    }
+}
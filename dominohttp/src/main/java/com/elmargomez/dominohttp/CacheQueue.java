@@ -0,0 +1,220 @@
+/*
+ * Copyright 2016 Elmar Rhex Gomez.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.elmargomez.dominohttp;
+
+import com.elmargomez.dominohttp.request.Request;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The priority queue in front of the {@link CacheDispatcher}. It can be bounded, in which
+ * case the {@link OverflowPolicy} decides what happens to new requests once it is full.
+ * The canceled requests are purged first, they do not count against the capacity.
+ * <p>
+ * Once {@link #close(List) closed} the queue refuses every request until it is opened
+ * again, so nothing is left in it after the last drain.
+ */
+public class CacheQueue {
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final PriorityQueue<Request> queue = new PriorityQueue<>();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final OverflowPolicy.Listener listener;
+    private int capacity = Integer.MAX_VALUE;
+    private OverflowPolicy policy = OverflowPolicy.BLOCK;
+    private boolean isClosed;
+
+    public CacheQueue(OverflowPolicy.Listener listener) {
+        this.listener = listener;
+    }
+
+    public void setCapacity(int capacity, OverflowPolicy policy) {
+        lock.lock();
+        try {
+            this.capacity = capacity;
+            this.policy = policy;
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adds the request, applying the overflow policy if the queue is full.
+     *
+     * @return false if the queue is closed and the request was not taken.
+     */
+    public boolean add(Request request) throws InterruptedException {
+        boolean isTaken = true;
+        Request victim = null;
+        List<Request> purged = null;
+        lock.lockInterruptibly();
+        try {
+            if (queue.size() >= capacity) {
+                purged = purgeCanceled(purged);
+            }
+            while (queue.size() >= capacity && policy == OverflowPolicy.BLOCK && !isClosed) {
+                notFull.await();
+                if (queue.size() >= capacity) {
+                    purged = purgeCanceled(purged);
+                }
+            }
+
+            // Checked after the wait too, the queue may have been closed meanwhile.
+            if (isClosed) {
+                isTaken = false;
+            } else if (queue.size() >= capacity) {
+                victim = policy.selectVictim(queue, request);
+                if (victim != request) {
+                    queue.remove(victim);
+                }
+            }
+
+            if (isTaken && victim != request) {
+                queue.add(request);
+                notEmpty.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (purged != null) {
+            for (Request canceled : purged) {
+                listener.onPurged(canceled);
+            }
+        }
+        if (victim != null) {
+            rejectedCount.incrementAndGet();
+            listener.onRejected(victim);
+        }
+        return isTaken;
+    }
+
+    /**
+     * Takes the canceled requests out of the queue, so they do not hold room a live
+     * request could use.
+     *
+     * @return the list the purged requests were added to, created if needed.
+     */
+    private List<Request> purgeCanceled(List<Request> purged) {
+        for (Iterator<Request> it = queue.iterator(); it.hasNext(); ) {
+            Request request = it.next();
+            if (request.isCanceled()) {
+                it.remove();
+                if (purged == null) {
+                    purged = new ArrayList<>();
+                }
+                purged.add(request);
+            }
+        }
+        return purged;
+    }
+
+    /**
+     * Puts back a request that was already admitted, ignoring the capacity.
+     *
+     * @return false if the queue is closed and the request was not taken.
+     */
+    public boolean requeue(Request request) {
+        lock.lock();
+        try {
+            if (isClosed) {
+                return false;
+            }
+            queue.add(request);
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Request take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (queue.isEmpty()) {
+                notEmpty.await();
+            }
+            Request request = queue.poll();
+            notFull.signal();
+            return request;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Closes the queue and moves the queued requests to the list. The requests offered
+     * afterwards are refused until {@link #open()}.
+     *
+     * @return the number of removed requests.
+     */
+    public int close(List<Request> list) {
+        lock.lock();
+        try {
+            isClosed = true;
+            int c = queue.size();
+            list.addAll(queue);
+            queue.clear();
+            notFull.signalAll();
+            return c;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes requests again after {@link #close(List)}.
+     */
+    public void open() {
+        lock.lock();
+        try {
+            isClosed = false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * @return the number of requests given up because the queue was full.
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+}
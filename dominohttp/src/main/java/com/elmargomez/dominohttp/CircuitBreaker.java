@@ -0,0 +1,178 @@
+/*
+ * Copyright 2016 Elmar Rhex Gomez.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.elmargomez.dominohttp;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps a circuit per host in front of the network stage. After too many consecutive
+ * failures the circuit opens and the requests to that host fail fast, or are answered
+ * from stale cache entries, without a connection attempt. Once the open timeout has
+ * passed the circuit is half-open and lets a few probe requests through: a success
+ * closes it, a failure opens it again.
+ */
+public class CircuitBreaker {
+    public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    public static final long DEFAULT_OPEN_TIMEOUT = 30 * 1000;
+    public static final int DEFAULT_PROBE_COUNT = 1;
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final Map<String, Circuit> circuits = new HashMap<>();
+    private int failureThreshold = DEFAULT_FAILURE_THRESHOLD;
+    private long openTimeout = DEFAULT_OPEN_TIMEOUT;
+    private int probeCount = DEFAULT_PROBE_COUNT;
+    private volatile boolean serveStale = true;
+
+    /**
+     * Sets the number of consecutive failures that opens a circuit. Zero disables the breaker.
+     */
+    public synchronized void setFailureThreshold(int failureThreshold) {
+        this.failureThreshold = failureThreshold;
+        if (failureThreshold <= 0) {
+            circuits.clear();
+        }
+    }
+
+    /**
+     * Sets how long a circuit stays open before probe requests are let through.
+     */
+    public synchronized void setOpenTimeout(long millis) {
+        openTimeout = millis;
+    }
+
+    /**
+     * Sets the number of probe requests a half-open circuit lets through.
+     */
+    public synchronized void setProbeCount(int probeCount) {
+        this.probeCount = probeCount;
+    }
+
+    /**
+     * Sets whether requests to an open circuit are answered from stale cache entries when
+     * there is one, instead of failing.
+     */
+    public void setServeStale(boolean serveStale) {
+        this.serveStale = serveStale;
+    }
+
+    public boolean shouldServeStale() {
+        return serveStale;
+    }
+
+    /**
+     * @return true if a request to the host may go to the network now.
+     */
+    public synchronized boolean allowRequest(String host) {
+        Circuit circuit = circuits.get(host);
+        if (failureThreshold <= 0 || circuit == null || circuit.state == State.CLOSED) {
+            return true;
+        }
+
+        long now = System.currentTimeMillis();
+        if (circuit.state == State.OPEN) {
+            if (now - circuit.since < openTimeout) {
+                return false;
+            }
+            circuit.state = State.HALF_OPEN;
+            circuit.since = now;
+            circuit.probes = 0;
+        }
+
+        // A probe that never reported back must not keep the circuit half-open forever.
+        if (circuit.probes >= probeCount && now - circuit.since >= openTimeout) {
+            circuit.since = now;
+            circuit.probes = 0;
+        }
+
+        if (circuit.probes >= probeCount) {
+            return false;
+        }
+        circuit.probes++;
+        return true;
+    }
+
+    public synchronized void onSuccess(String host) {
+        circuits.remove(host);
+    }
+
+    /**
+     * Called when a request let through failed on the client side, which says nothing
+     * about the host. A half-open circuit gets the probe back.
+     */
+    public synchronized void onLocalFailure(String host) {
+        Circuit circuit = circuits.get(host);
+        if (circuit != null && circuit.state == State.HALF_OPEN && circuit.probes > 0) {
+            circuit.probes--;
+        }
+    }
+
+    public synchronized void onFailure(String host) {
+        if (failureThreshold <= 0) {
+            return;
+        }
+
+        Circuit circuit = circuits.get(host);
+        if (circuit == null) {
+            circuit = new Circuit();
+            circuits.put(host, circuit);
+        }
+
+        circuit.failures++;
+        if (circuit.state == State.HALF_OPEN || circuit.failures >= failureThreshold) {
+            if (circuit.state != State.OPEN) {
+                DominoLog.debug("Circuit opened [host: " + host + "]");
+            }
+            circuit.state = State.OPEN;
+            circuit.since = System.currentTimeMillis();
+        }
+    }
+
+    public synchronized State getState(String host) {
+        Circuit circuit = circuits.get(host);
+        return circuit == null ? State.CLOSED : circuit.state;
+    }
+
+    /**
+     * @return true if the exception says the host is unhealthy, as opposed to a client
+     * error the server answered properly, a body that could not be parsed, or a
+     * {@link LocalException}.
+     */
+    public static boolean isHostFailure(IOException e) {
+        if (e instanceof ParseException || e instanceof LocalException) {
+            return false;
+        }
+        if (e instanceof HttpException) {
+            return ((HttpException) e).getStatusCode() >= 500;
+        }
+        return true;
+    }
+
+    private static class Circuit {
+        private State state = State.CLOSED;
+        private int failures;
+        private int probes;
+        private long since;
+    }
+}
@@ -16,41 +16,32 @@
 
 package com.elmargomez.dominohttp;
 
-import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.TimeZone;
 
+/**
+ * @deprecated use {@link HttpDate} to parse HTTP dates.
+ */
+@Deprecated
 public class DateGenerator {
 
     private static final String TIME_FORMAT = "HH:mm:ss-yyyy-MM-dd";
-    private static final String RFC_1123_FORMAT = "EEE, dd MMM yyyy HH:mm:ss z";
     private static DateGenerator generator = new DateGenerator();
     private SimpleDateFormat format;
-    private SimpleDateFormat format2;
 
     private DateGenerator() {
         format = new SimpleDateFormat(TIME_FORMAT);
-        format2 = new SimpleDateFormat(RFC_1123_FORMAT);
     }
 
     public static DateGenerator getGenerator() {
         return generator;
     }
 
-    public String getTime() {
+    public synchronized String getTime() {
         return format.format(new Date());
     }
 
     public long getEpoch(String rfc_date) {
-        try {
-            format2.setTimeZone(TimeZone.getTimeZone("GMT"));
-            Date d = format2.parse(rfc_date);
-            format2.setTimeZone(TimeZone.getDefault());
-            String sDate = format2.format(d);
-            return format2.parse(sDate).getTime();
-        } catch (ParseException e) {
-            return 0;
-        }
+        return Math.max(0, HttpDate.parse(rfc_date));
     }
 }
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2016 Elmar Rhex Gomez.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.elmargomez.dominohttp;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.concurrent.Executor;
+
+/**
+ * The executors the responses can be delivered on, for a whole queue with
+ * {@link RequestQueue#RequestQueue(Network, Cache, int, int, Executor)} or for one request
+ * with {@link com.elmargomez.dominohttp.request.Request#setDeliveryExecutor(Executor)}.
+ * Any other Executor works as well.
+ */
+public final class DeliveryExecutors {
+    private static final HandlerExecutor MAIN_THREAD = new HandlerExecutor(null);
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            try {
+                command.run();
+            } catch (RuntimeException e) {
+                // A failing listener must not take the dispatcher thread down with it.
+                DominoLog.error("Listener failed", e);
+            }
+        }
+    };
+
+    private DeliveryExecutors() {
+    }
+
+    /**
+     * @return the executor of the main thread, the default. Its Handler is only created
+     * when the first response is delivered.
+     */
+    public static Executor mainThread() {
+        return MAIN_THREAD;
+    }
+
+    /**
+     * @return an executor that calls the listeners right away on the dispatcher thread,
+     * for consumers that do not need the main thread. The listeners should be quick.
+     */
+    public static Executor direct() {
+        return DIRECT;
+    }
+
+    public static Executor handler(Handler handler) {
+        return new HandlerExecutor(handler);
+    }
+
+    /**
+     * Posts to a Handler, which also lets batched deliveries wait for their interval.
+     */
+    static class HandlerExecutor implements Executor {
+        private volatile Handler handler;
+
+        /**
+         * @param handler the handler, or null for one on the main thread created when
+         *                first used.
+         */
+        HandlerExecutor(Handler handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            getHandler().post(command);
+        }
+
+        void executeDelayed(Runnable command, long millis) {
+            getHandler().postDelayed(command, millis);
+        }
+
+        private Handler getHandler() {
+            Handler h = handler;
+            if (h == null) {
+                synchronized (this) {
+                    h = handler;
+                    if (h == null) {
+                        h = new Handler(Looper.getMainLooper());
+                        handler = h;
+                    }
+                }
+            }
+            return h;
+        }
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2016 Elmar Rhex Gomez.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.elmargomez.dominohttp;
+
+import com.elmargomez.dominohttp.request.Request;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An elastic group of {@link NetworkDispatcher}. The pool grows up to its maximum size
+ * when the network queue backs up or the time to first byte rises, and idle dispatchers
+ * retire after the idle timeout until the pool is back to its minimum size.
+ */
+public class DispatcherPool {
+    private static final long DEFAULT_IDLE_TIMEOUT = 30 * 1000;
+    private static final long DEFAULT_LATENCY_THRESHOLD = 1000;
+
+    private final NetworkQueue networkRequest;
+    private final Cache cache;
+    private final Network network;
+    private final ResponseSender responseSender;
+    private final InFlightRequests inFlight;
+    private final CircuitBreaker circuitBreaker;
+
+    private final int minSize;
+    private final int maxSize;
+    private final List<NetworkDispatcher> dispatchers = new ArrayList<>();
+    private final List<NetworkDispatcher> stopping = new ArrayList<>();
+    private final AtomicInteger idleCount = new AtomicInteger();
+    private volatile long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+    private volatile long latencyThreshold = DEFAULT_LATENCY_THRESHOLD;
+    private volatile long averageLatency;
+    private boolean isRunning;
+
+    public DispatcherPool(NetworkQueue networkRequest, Cache cache, Network network,
+                          ResponseSender responseSender, InFlightRequests inFlight,
+                          CircuitBreaker circuitBreaker, int minSize, int maxSize) {
+        if (minSize < 1 || maxSize < minSize) {
+            throw new IllegalArgumentException("Invalid pool bounds " + minSize + ".." + maxSize);
+        }
+
+        this.networkRequest = networkRequest;
+        this.cache = cache;
+        this.network = network;
+        this.responseSender = responseSender;
+        this.inFlight = inFlight;
+        this.circuitBreaker = circuitBreaker;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Sets how long a dispatcher above the minimum size waits for work before it retires.
+     */
+    public void setIdleTimeout(long millis) {
+        idleTimeout = millis;
+    }
+
+    /**
+     * Sets the average time to first byte above which a busy pool grows even if the
+     * network queue has not backed up yet.
+     */
+    public void setLatencyThreshold(long millis) {
+        latencyThreshold = millis;
+    }
+
+    public synchronized void start() {
+        if (isRunning)
+            return;
+
+        isRunning = true;
+        for (int i = 0; i < minSize; i++) {
+            spawn();
+        }
+    }
+
+    public synchronized void stop() {
+        if (!isRunning)
+            return;
+
+        isRunning = false;
+        for (NetworkDispatcher dispatcher : dispatchers) {
+            dispatcher.close();
+        }
+        stopping.addAll(dispatchers);
+        dispatchers.clear();
+    }
+
+    /**
+     * Waits up to the timeout for the stopped dispatchers to end.
+     */
+    public void awaitTermination(long millis) throws InterruptedException {
+        List<NetworkDispatcher> threads;
+        synchronized (this) {
+            threads = new ArrayList<>(stopping);
+            stopping.clear();
+        }
+
+        long deadline = System.currentTimeMillis() + millis;
+        for (NetworkDispatcher dispatcher : threads) {
+            long left = deadline - System.currentTimeMillis();
+            if (left <= 0) {
+                return;
+            }
+            dispatcher.join(left);
+        }
+    }
+
+    public synchronized int size() {
+        return dispatchers.size();
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getAverageLatency() {
+        return averageLatency;
+    }
+
+    /**
+     * Adds a dispatcher when the requests ready to run outnumber the idle dispatchers, or when
+     * the responses are slow and nobody is idle.
+     */
+    public void maybeGrow() {
+        int idle = idleCount.get();
+        int backlog = networkRequest.readyCount();
+        boolean slow = idle == 0 && averageLatency > latencyThreshold;
+        if (backlog <= idle && !slow) {
+            return;
+        }
+
+        synchronized (this) {
+            if (!isRunning || dispatchers.size() >= maxSize) {
+                return;
+            }
+            spawn();
+            DominoLog.debug("Dispatcher Pool grew to " + dispatchers.size());
+        }
+    }
+
+    /**
+     * Waits for the next request up to the idle timeout.
+     *
+     * @return the request, or null if the dispatcher was idle for the whole timeout.
+     */
+    Request poll() throws InterruptedException {
+        idleCount.incrementAndGet();
+        Request request;
+        try {
+            request = networkRequest.poll(idleTimeout, TimeUnit.MILLISECONDS);
+        } finally {
+            idleCount.decrementAndGet();
+        }
+
+        if (request != null) {
+            maybeGrow();
+        }
+        return request;
+    }
+
+    /**
+     * @return true if the idle dispatcher was removed from the pool and must end.
+     */
+    synchronized boolean retire(NetworkDispatcher dispatcher) {
+        if (!isRunning) {
+            return true;
+        }
+
+        if (dispatchers.size() <= minSize) {
+            return false;
+        }
+
+        dispatchers.remove(dispatcher);
+        DominoLog.debug("Dispatcher Pool shrank to " + dispatchers.size());
+        return true;
+    }
+
+    synchronized void recordLatency(long millis) {
+        // Exponential moving average, each new sample is worth one eighth.
+        averageLatency = averageLatency == 0 ? millis : averageLatency + (millis - averageLatency) / 8;
+    }
+
+    private void spawn() {
+        NetworkDispatcher dispatcher = new NetworkDispatcher(networkRequest, cache, network,
+                responseSender, inFlight, this, circuitBreaker);
+        dispatchers.add(dispatcher);
+        dispatcher.start();
+    }
+}
@@ -48,12 +48,27 @@ public class Domino {
         requestQueue.stop();
     }
 
+    public RequestQueue.DrainResult stop(long drainTimeout) {
+        return requestQueue.stop(drainTimeout);
+    }
+
     public void add(Request request) {
         requestQueue.add(request);
     }
 
+    /**
+     * @see RequestQueue#preconnect(String)
+     */
+    public void preconnect(String url) {
+        requestQueue.preconnect(url);
+    }
+
     public void remove(Request request) {
         requestQueue.remove(request);
     }
 
+    public int cancelAll(Object tag) {
+        return requestQueue.cancelAll(tag);
+    }
+
 }
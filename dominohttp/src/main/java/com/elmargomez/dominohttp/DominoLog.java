@@ -18,16 +18,79 @@ package com.elmargomez.dominohttp;
 
 import android.util.Log;
 
+/**
+ * The logs of the library, sent to a pluggable {@link Logger}. On Android they go to
+ * Logcat. Elsewhere, e.g. on a plain JVM, only the errors are printed unless another
+ * logger is set.
+ */
 public class DominoLog {
 
     private static final String LOG_NAME = "Domino Log";
+    private static final boolean IS_ANDROID =
+            "The Android Project".equals(System.getProperty("java.vendor"));
+
+    private static final Logger LOGCAT = new Logger() {
+        @Override
+        public void debug(String message) {
+            Log.d(LOG_NAME, message);
+        }
+
+        @Override
+        public void error(String message, Throwable t) {
+            Log.e(LOG_NAME, message, t);
+        }
+    };
+    private static final Logger STANDARD_ERROR = new Logger() {
+        @Override
+        public void debug(String message) {
+            // Off Android the debug logs are opt-in, through another logger.
+        }
+
+        @Override
+        public void error(String message, Throwable t) {
+            System.err.println(LOG_NAME + ": " + message);
+            if (t != null) {
+                t.printStackTrace();
+            }
+        }
+    };
+
+    private static volatile Logger logger = IS_ANDROID ? LOGCAT : STANDARD_ERROR;
+
+    /**
+     * Sends the logs to the logger, or nowhere if it is null.
+     */
+    public static void setLogger(Logger logger) {
+        DominoLog.logger = logger;
+    }
 
     public static void debug(String d) {
-        Log.d(LOG_NAME, d);
+        Logger l = logger;
+        if (l != null) {
+            l.debug(d);
+        }
     }
 
     public static void error(String e) {
-        Log.e(LOG_NAME, e);
+        error(e, null);
+    }
+
+    public static void error(String e, Throwable t) {
+        Logger l = logger;
+        if (l != null) {
+            l.error(e, t);
+        }
+    }
+
+    public interface Logger {
+
+        void debug(String message);
+
+        /**
+         * @param t the cause, may be null.
+         */
+        void error(String message, Throwable t);
+
     }
 
 }
@@ -18,6 +18,7 @@ package com.elmargomez.dominohttp;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
@@ -26,20 +27,27 @@ import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 public class FileCache implements Cache {
 
     private static final int DEFAULT_DISK_SIZE = 5 * (int) Math.pow(1024.0, 2.0);
+    private static final String TEMP_SUFFIX = ".tmp";
+    // Marks the entries whose body is stored gzipped, it never leaves the file.
+    private static final String STORED_ENCODING = "X-Domino-Stored-Encoding";
     private Map<String, CacheHeader> headers = new HashMap<>();
 
     private long size;
     private final int limitSize;
     private boolean alreadyInitialize;
     private File generalFile;
+    private volatile boolean compressed;
 
     public FileCache(File file, int maxCacheSizeInBytes) {
         generalFile = file;
@@ -50,6 +58,14 @@ public class FileCache implements Cache {
         this(file, DEFAULT_DISK_SIZE);
     }
 
+    /**
+     * Stores the new entries gzipped, trading CPU on every read and write for disk space.
+     * Entries already stored keep the form they were written in.
+     */
+    public void setCompressed(boolean compressed) {
+        this.compressed = compressed;
+    }
+
     @Override
     public synchronized void initialize() {
         if (alreadyInitialize) {
@@ -72,6 +88,11 @@ public class FileCache implements Cache {
             return;
 
         for (File file : files) {
+            // A write that never completed, the entry was never published.
+            if (file.getName().endsWith(TEMP_SUFFIX)) {
+                file.delete();
+                continue;
+            }
 
             BufferedInputStream stream = null;
             try {
@@ -98,24 +119,81 @@ public class FileCache implements Cache {
 
     @Override
     public synchronized void put(String key, Data data) {
-        hammerFile(data.data.length);
         File file = getFileForKey(key);
+        // Write aside and rename, so an interrupted write never leaves a corrupt entry.
+        File temp = new File(generalFile, file.getName() + TEMP_SUFFIX);
         try {
-            BufferedOutputStream fos = new BufferedOutputStream(new FileOutputStream(file));
             CacheHeader e = new CacheHeader(key, data);
+            byte[] body = data.data;
+            if (compressed) {
+                body = Network.gzip(body);
+                e.size = body.length;
+                e.isCompressed = true;
+            }
+            hammerFile(body.length);
+            BufferedOutputStream fos = new BufferedOutputStream(new FileOutputStream(temp));
             boolean success = e.writeHeader(fos);
             if (!success) {
                 fos.close();
                 throw new IOException();
             }
-            fos.write(data.data);
+            fos.write(body);
             fos.close();
+            if (!temp.renameTo(file)) {
+                throw new IOException("Unable to rename " + temp);
+            }
             putData(key, e);
             return;
         } catch (IOException e) {
         }
 
-        boolean deleted = file.delete();
+        boolean deleted = temp.delete();
+    }
+
+    @Override
+    public synchronized Writer edit(final String key, Data data) throws IOException {
+        final File file = getFileForKey(key);
+        final File temp = File.createTempFile(file.getName(), TEMP_SUFFIX, generalFile);
+        final CacheHeader header = new CacheHeader(key, data);
+        header.isCompressed = compressed;
+        final BufferedOutputStream fos = new BufferedOutputStream(new FileOutputStream(temp));
+        if (!header.writeHeader(fos)) {
+            fos.close();
+            temp.delete();
+            throw new IOException("Unable to write the header of " + key);
+        }
+        final OutputStream out = header.isCompressed ? new GZIPOutputStream(fos) : fos;
+
+        return new Writer() {
+            @Override
+            public OutputStream getStream() {
+                return out;
+            }
+
+            @Override
+            public void commit() throws IOException {
+                out.close();
+                synchronized (FileCache.this) {
+                    header.size = temp.length();
+                    hammerFile((int) header.size);
+                    if (!temp.renameTo(file)) {
+                        temp.delete();
+                        throw new IOException("Unable to rename " + temp);
+                    }
+                    putData(key, header);
+                }
+            }
+
+            @Override
+            public void abort() {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                temp.delete();
+            }
+        };
     }
 
     @Override
@@ -130,8 +208,10 @@ public class FileCache implements Cache {
         SizeInputStream cis = null;
         try {
             cis = new SizeInputStream(new BufferedInputStream(new FileInputStream(file)));
-            CacheHeader.readHeader(cis); // eat header
-            byte[] data = writeBytesToStream(cis, (int) (file.length() - cis.bytesRead));
+            CacheHeader stored = CacheHeader.readHeader(cis);
+            byte[] data = stored.isCompressed
+                    ? Network.getBytes(new GZIPInputStream(cis))
+                    : writeBytesToStream(cis, (int) (file.length() - cis.bytesRead));
             return entry.toCacheEntry(data);
         } catch (IOException e) {
             remove(cacheKey);
@@ -147,6 +227,74 @@ public class FileCache implements Cache {
         }
     }
 
+    @Override
+    public synchronized InputStream openStream(String cacheKey) throws IOException {
+        if (!headers.containsKey(cacheKey)) {
+            return null;
+        }
+
+        // An open file stays readable even if the entry is replaced or evicted meanwhile.
+        InputStream stream = new BufferedInputStream(
+                new FileInputStream(getFileForKey(cacheKey)));
+        try {
+            CacheHeader stored = CacheHeader.readHeader(stream);
+            return stored.isCompressed ? new GZIPInputStream(stream) : stream;
+        } catch (IOException e) {
+            stream.close();
+            remove(cacheKey);
+            throw e;
+        }
+    }
+
+    @Override
+    public synchronized Data getMetadata(String cacheKey) {
+        CacheHeader entry = headers.get(cacheKey);
+        return entry != null ? entry.toCacheEntry(null) : null;
+    }
+
+    @Override
+    public synchronized void refresh(String key, Data data) {
+        CacheHeader entry = headers.get(key);
+        if (entry == null) {
+            return;
+        }
+
+        File file = getFileForKey(key);
+        SizeInputStream cis = null;
+        RandomAccessFile raf = null;
+        try {
+            // The ttls follow the key and the header map, overwrite them where they are.
+            cis = new SizeInputStream(new BufferedInputStream(new FileInputStream(file)));
+            readString(cis);
+            readStringStringMap(cis);
+            int offset = cis.bytesRead;
+            cis.close();
+            cis = null;
+
+            ByteArrayOutputStream ttls = new ByteArrayOutputStream(16);
+            writeLong(ttls, data.ttl);
+            writeLong(ttls, data.softTTL);
+            raf = new RandomAccessFile(file, "rw");
+            raf.seek(offset);
+            raf.write(ttls.toByteArray());
+            entry.ttl = data.ttl;
+            entry.softTTL = data.softTTL;
+        } catch (IOException e) {
+            remove(key);
+        } finally {
+            try {
+                if (cis != null) {
+                    cis.close();
+                }
+                if (raf != null) {
+                    raf.close();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
     @Override
     public synchronized void remove(String key) {
         boolean deleted = getFileForKey(key).delete();
@@ -237,12 +385,13 @@ public class FileCache implements Cache {
         public Map<String, String> header;
         public long ttl;
         public long softTTL;
+        public boolean isCompressed;
 
         public CacheHeader() {
         }
 
         public CacheHeader(String cacheKey, Data data) {
-            size = data.data.length;
+            size = data.data != null ? data.data.length : 0;
             this.cacheKey = cacheKey;
             header = data.header;
             ttl = data.ttl;
@@ -253,6 +402,10 @@ public class FileCache implements Cache {
             CacheHeader entry = new CacheHeader();
             entry.cacheKey = readString(is);
             entry.header = readStringStringMap(is);
+            if (entry.header.containsKey(STORED_ENCODING)) {
+                entry.isCompressed = true;
+                entry.header.remove(STORED_ENCODING);
+            }
             entry.ttl = readLong(is);
             entry.softTTL = readLong(is);
             return entry;
@@ -261,7 +414,12 @@ public class FileCache implements Cache {
         public boolean writeHeader(OutputStream os) {
             try {
                 writeString(os, cacheKey);
-                writeStringStringMap(header, os);
+                Map<String, String> map = header;
+                if (isCompressed) {
+                    map = header != null ? new HashMap<>(header) : new HashMap<String, String>();
+                    map.put(STORED_ENCODING, "gzip");
+                }
+                writeStringStringMap(map, os);
                 writeLong(os, ttl);
                 writeLong(os, softTTL);
                 os.flush();
@@ -356,10 +514,19 @@ public class FileCache implements Cache {
 
     static void writeStringStringMap(Map<String, String> map, OutputStream os) throws IOException {
         if (map != null) {
-            writeInt(os, map.size());
+            // HttpURLConnection reports the status line under a null key, it is not kept.
+            int size = 0;
             for (Map.Entry<String, String> entry : map.entrySet()) {
-                writeString(os, entry.getKey());
-                writeString(os, entry.getValue());
+                if (entry.getKey() != null && entry.getValue() != null) {
+                    size++;
+                }
+            }
+            writeInt(os, size);
+            for (Map.Entry<String, String> entry : map.entrySet()) {
+                if (entry.getKey() != null && entry.getValue() != null) {
+                    writeString(os, entry.getKey());
+                    writeString(os, entry.getValue());
+                }
             }
         } else {
             writeInt(os, 0);
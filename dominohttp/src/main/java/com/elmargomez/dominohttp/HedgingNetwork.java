@@ -0,0 +1,298 @@
+/*
+ * Copyright 2016 Elmar Rhex Gomez.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.elmargomez.dominohttp;
+
+import com.elmargomez.dominohttp.request.Request;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link Network} that hedges idempotent GET requests. When the first attempt has not
+ * answered within the chosen percentile of the recent response times, a second attempt
+ * is sent; the first one to answer wins and the other is canceled. The share of the
+ * requests that may be hedged is capped by the budget.
+ * <p>
+ * The first attempt runs on the dispatcher thread. The second one counts against the
+ * host like any request of the {@link NetworkQueue}: it needs a free slot under the host
+ * limit and a token of the host rate, and it is only sent while the host circuit is
+ * closed. Otherwise the request is not hedged.
+ */
+public class HedgingNetwork extends Network {
+    private static final int WINDOW_SIZE = 100;
+    private static final int MIN_SAMPLES = 20;
+
+    private final Network network;
+    private final NetworkQueue networkQueue;
+    private final CircuitBreaker circuitBreaker;
+    private final long[] window = new long[WINDOW_SIZE];
+    private int samples;
+    private int next;
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong hedgeCount = new AtomicLong();
+    private volatile float percentile = 0.95f;
+    private volatile float budget;
+    private ScheduledExecutorService timer;
+    private ExecutorService executor;
+
+    public HedgingNetwork(Network network, NetworkQueue networkQueue,
+                          CircuitBreaker circuitBreaker) {
+        this.network = network;
+        this.networkQueue = networkQueue;
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    @Override
+    public void setCache(Cache cache) {
+        network.setCache(cache);
+    }
+
+    @Override
+    public void setDecompression(boolean decompression) {
+        network.setDecompression(decompression);
+    }
+
+    @Override
+    public void setRequestCompression(String host, int threshold) {
+        network.setRequestCompression(host, threshold);
+    }
+
+    /**
+     * Enables the hedging.
+     *
+     * @param percentile the response time percentile, from 0 to 1, after which a second
+     *                   attempt is sent.
+     * @param budget     the largest fraction, from 0 to 1, of the hedgeable requests that
+     *                   may be hedged. Zero disables the hedging.
+     */
+    public void setHedging(float percentile, float budget) {
+        this.percentile = Math.max(0f, Math.min(1f, percentile));
+        this.budget = Math.max(0f, Math.min(1f, budget));
+    }
+
+    public long getHedgeCount() {
+        return hedgeCount.get();
+    }
+
+    @Override
+    public Response getNetworkResponse(Request request, Attempt attempt) throws IOException {
+        // Two attempts of a download would write the same file, those of a streaming
+        // request would both parse the body.
+        if (budget <= 0 || !request.isIdempotent() || !Request.GET.equals(request.getMethod())
+                || request.isDownload() || request.isStreaming()) {
+            return attempt == null ? network.getNetworkResponse(request)
+                    : network.getNetworkResponse(request, attempt);
+        }
+
+        requestCount.incrementAndGet();
+        long start = System.currentTimeMillis();
+        long delay = getHedgeDelay();
+        if (delay < 0) {
+            Response response = network.getNetworkResponse(request, attempt);
+            recordLatency(System.currentTimeMillis() - start);
+            return response;
+        }
+
+        Hedge hedge = new Hedge(request, attempt != null ? attempt : new Attempt());
+        ScheduledFuture<?> scheduled = getTimer().schedule(hedge, delay, TimeUnit.MILLISECONDS);
+        Response response = null;
+        IOException error = null;
+        try {
+            response = network.getNetworkResponse(request, hedge.primary);
+        } catch (IOException e) {
+            error = e;
+        }
+        scheduled.cancel(false);
+
+        response = hedge.finish(response, error);
+        recordLatency(System.currentTimeMillis() - start);
+        return response;
+    }
+
+    private boolean acquireHedge() {
+        if (hedgeCount.get() + 1 > budget * requestCount.get()) {
+            return false;
+        }
+        hedgeCount.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * @return the time to wait before hedging, or -1 until enough responses were seen.
+     */
+    private synchronized long getHedgeDelay() {
+        int c = samples;
+        if (c < MIN_SAMPLES) {
+            return -1;
+        }
+        long[] sorted = Arrays.copyOf(window, c);
+        Arrays.sort(sorted);
+        return sorted[Math.min(c - 1, (int) (percentile * c))];
+    }
+
+    private synchronized void recordLatency(long millis) {
+        window[next] = millis;
+        next = (next + 1) % WINDOW_SIZE;
+        if (samples < WINDOW_SIZE) {
+            samples++;
+        }
+    }
+
+    private synchronized ScheduledExecutorService getTimer() {
+        if (timer == null) {
+            timer = Executors.newSingleThreadScheduledExecutor(threadFactory("Domino Hedge Timer"));
+        }
+        return timer;
+    }
+
+    private synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newCachedThreadPool(threadFactory("Domino Hedge"));
+        }
+        return executor;
+    }
+
+    private static ThreadFactory threadFactory(final String name) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * The race between the attempt of the dispatcher and the hedged one. It is started by
+     * the timer once the hedge delay has passed.
+     */
+    private class Hedge implements Runnable {
+        private final Request request;
+        private final Attempt primary;
+        private Attempt attempt;
+        private boolean isPrimaryDone;
+        private boolean isDone;
+        private Response response;
+        private IOException error;
+
+        Hedge(Request request, Attempt primary) {
+            this.request = request;
+            this.primary = primary;
+        }
+
+        @Override
+        public void run() {
+            String host = request.getHost();
+            synchronized (this) {
+                if (isPrimaryDone || circuitBreaker.getState(host) != CircuitBreaker.State.CLOSED
+                        || !networkQueue.tryAcquireSlot(host)) {
+                    return;
+                }
+                if (!acquireHedge()) {
+                    networkQueue.releaseSlot(host);
+                    return;
+                }
+                attempt = new Attempt();
+            }
+
+            DominoLog.debug("Hedging Request [id: " + request.getRequestKey() + "]");
+            getExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    send();
+                }
+            });
+        }
+
+        private void send() {
+            Response r = null;
+            IOException e = null;
+            try {
+                r = network.getNetworkResponse(request, attempt);
+            } catch (IOException ioe) {
+                e = ioe;
+            } finally {
+                networkQueue.releaseSlot(request.getHost());
+            }
+
+            synchronized (this) {
+                isDone = true;
+                response = r;
+                error = e;
+                if (r != null && !isPrimaryDone) {
+                    // The hedge won, the dispatcher returns its response.
+                    primary.cancel();
+                }
+                notifyAll();
+            }
+
+            // Only the failures nobody else reports, the dispatcher reports the winner.
+            if (e != null && !attempt.isCanceled()
+                    && CircuitBreaker.isHostFailure(e)) {
+                circuitBreaker.onFailure(request.getHost());
+            }
+        }
+
+        /**
+         * Called by the dispatcher once its own attempt ended.
+         *
+         * @return the winning response.
+         */
+        synchronized Response finish(Response primaryResponse, IOException primaryError)
+                throws IOException {
+            isPrimaryDone = true;
+            if (attempt == null) {
+                if (primaryError != null) {
+                    throw primaryError;
+                }
+                return primaryResponse;
+            }
+
+            if (isDone && response != null) {
+                return response;
+            }
+            if (primaryError == null) {
+                // Only the loser is canceled, the winner's connection may be reused.
+                attempt.cancel();
+                return primaryResponse;
+            }
+
+            try {
+                while (!isDone) {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                attempt.cancel();
+                throw new InterruptedIOException();
+            }
+            if (response != null) {
+                return response;
+            }
+            throw primaryError;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2016 Elmar Rhex Gomez.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.elmargomez.dominohttp;
+
+import java.text.DateFormat;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * A thread-safe parser of HTTP dates. The IMF-fixdate every server has to send, e.g.
+ * {@code Sun, 06 Nov 1994 08:49:37 GMT}, is parsed by hand without allocating. The two
+ * obsolete formats go through a SimpleDateFormat owned by the calling thread. The last
+ * parsed date is kept, since responses received in the same second share their Date.
+ */
+public final class HttpDate {
+    private static final String MONTHS = "JanFebMarAprMayJunJulAugSepOctNovDec";
+    private static final String[] OBSOLETE_FORMATS = {
+            "EEEE, dd-MMM-yy HH:mm:ss zzz", // RFC 850
+            "EEE MMM d HH:mm:ss yyyy" // asctime()
+    };
+    private static final ThreadLocal<DateFormat[]> OBSOLETE_PARSERS =
+            new ThreadLocal<DateFormat[]>() {
+                @Override
+                protected DateFormat[] initialValue() {
+                    DateFormat[] parsers = new DateFormat[OBSOLETE_FORMATS.length];
+                    for (int i = 0; i < parsers.length; i++) {
+                        parsers[i] = new SimpleDateFormat(OBSOLETE_FORMATS[i], Locale.US);
+                        parsers[i].setTimeZone(TimeZone.getTimeZone("GMT"));
+                    }
+                    return parsers;
+                }
+            };
+
+    private static volatile Parsed last;
+
+    private HttpDate() {
+    }
+
+    /**
+     * @return the date in milliseconds since the epoch, or -1 if it is not a valid date.
+     */
+    public static long parse(String value) {
+        if (value == null) {
+            return -1;
+        }
+
+        Parsed cached = last;
+        if (cached != null && cached.value.equals(value)) {
+            return cached.millis;
+        }
+
+        long millis = parseFixdate(value);
+        if (millis < 0) {
+            millis = parseObsolete(value);
+        }
+        last = new Parsed(value, millis);
+        return millis;
+    }
+
+    private static long parseFixdate(String s) {
+        if (s.length() != 29 || s.charAt(3) != ',' || s.charAt(4) != ' '
+                || s.charAt(7) != ' ' || s.charAt(11) != ' ' || s.charAt(16) != ' '
+                || s.charAt(19) != ':' || s.charAt(22) != ':' || s.charAt(25) != ' '
+                || !s.regionMatches(26, "GMT", 0, 3)) {
+            return -1;
+        }
+
+        int day = number(s, 5, 7);
+        int month = -1;
+        for (int i = 0; i < 12; i++) {
+            if (s.regionMatches(8, MONTHS, i * 3, 3)) {
+                month = i + 1;
+                break;
+            }
+        }
+        int year = number(s, 12, 16);
+        int hour = number(s, 17, 19);
+        int minute = number(s, 20, 22);
+        int second = number(s, 23, 25);
+        if (day < 1 || day > 31 || month < 0 || year < 0 || hour < 0 || hour > 23
+                || minute < 0 || minute > 59 || second < 0 || second > 60) {
+            return -1;
+        }
+
+        long seconds = daysFromCivil(year, month, day) * 86400L
+                + hour * 3600 + minute * 60 + second;
+        return seconds * 1000;
+    }
+
+    private static long parseObsolete(String value) {
+        for (DateFormat parser : OBSOLETE_PARSERS.get()) {
+            ParsePosition position = new ParsePosition(0);
+            Date date = parser.parse(value, position);
+            if (date != null && position.getIndex() == value.length()) {
+                return date.getTime();
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the decimal value of the characters, or -1 if one is not a digit.
+     */
+    private static int number(String s, int start, int end) {
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * @return the number of days from 1970-01-01 to the date of the proleptic Gregorian
+     * calendar.
+     */
+    private static long daysFromCivil(int year, int month, int day) {
+        year -= month <= 2 ? 1 : 0;
+        long era = (year >= 0 ? year : year - 399) / 400;
+        long yearOfEra = year - era * 400;
+        long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    private static class Parsed {
+        final String value;
+        final long millis;
+
+        Parsed(String value, long millis) {
+            this.value = value;
+            this.millis = millis;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2016 Elmar Rhex Gomez.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.elmargomez.dominohttp;
+
+import com.elmargomez.dominohttp.request.Request;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps track of the GET requests that are queued or being fetched, keyed by
+ * {@link Request#getRequestKey()}. A duplicate request added while its leader is
+ * still in flight becomes a follower and receives the leader's response instead
+ * of going to the cache and the network on its own.
+ * <p>
+ * A follower shares the leader's fate, including its place in the queue and its
+ * deadline, so only a duplicate with the same priority and timeout is coalesced. The
+ * others go on their own.
+ */
+public class InFlightRequests {
+
+    private final Map<String, Entry> table = new HashMap<>();
+
+    /**
+     * @return true if the request was attached as a follower of an in-flight request
+     * and must not be queued.
+     */
+    public synchronized boolean attach(Request request) {
+        // Every download writes its own file and every streaming request parses its own
+        // body, so they can not share the leader's response.
+        if (!Request.GET.equals(request.getMethod()) || request.isDownload()
+                || request.isStreaming()) {
+            return false;
+        }
+
+        String key = request.getRequestKey();
+        Entry entry = table.get(key);
+        if (entry == null) {
+            table.put(key, new Entry(request));
+            return false;
+        }
+
+        if (entry.leader.getPriority() != request.getPriority()
+                || entry.leader.getTimeout() != request.getTimeout()) {
+            return false;
+        }
+        entry.followers.add(request);
+        return true;
+    }
+
+    /**
+     * Hands out the current followers of the leader while keeping it in flight,
+     * e.g. when a cached response is delivered before the cache is refreshed.
+     */
+    public synchronized List<Request> detachFollowers(Request leader) {
+        Entry entry = lookup(leader);
+        if (entry == null || entry.followers.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        List<Request> followers = entry.followers;
+        entry.followers = new ArrayList<>();
+        return followers;
+    }
+
+    /**
+     * Removes the leader from the table.
+     *
+     * @return the followers that are waiting for the leader's response.
+     */
+    public synchronized List<Request> finish(Request leader) {
+        Entry entry = lookup(leader);
+        if (entry == null) {
+            return Collections.emptyList();
+        }
+
+        table.remove(leader.getRequestKey());
+        return entry.followers;
+    }
+
+    /**
+     * Replaces a canceled leader with its first live follower.
+     *
+     * @return the new leader that must be queued in place of the canceled one, or null
+     * if nobody is waiting anymore.
+     */
+    public synchronized Request promote(Request leader) {
+        Entry entry = lookup(leader);
+        if (entry == null) {
+            return null;
+        }
+
+        while (!entry.followers.isEmpty()) {
+            Request next = entry.followers.remove(0);
+            if (!next.isCanceled()) {
+                entry.leader = next;
+                return next;
+            }
+        }
+
+        table.remove(leader.getRequestKey());
+        return null;
+    }
+
+    public synchronized int size() {
+        return table.size();
+    }
+
+    private Entry lookup(Request leader) {
+        Entry entry = table.get(leader.getRequestKey());
+        if (entry == null || entry.leader != leader) {
+            return null;
+        }
+        return entry;
+    }
+
+    private static class Entry {
+        private Request leader;
+        private List<Request> followers = new ArrayList<>();
+
+        private Entry(Request leader) {
+            this.leader = leader;
+        }
+    }
+}
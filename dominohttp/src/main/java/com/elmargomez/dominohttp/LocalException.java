@@ -0,0 +1,35 @@
+/*
+ * Copyright 2016 Elmar Rhex Gomez.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.elmargomez.dominohttp;
+
+import java.io.IOException;
+
+/**
+ * Thrown by {@link Network} when a request fails on the client side, e.g. its deadline
+ * passed before the connection was made or its upload file is missing. It says nothing
+ * about the host, so the {@link CircuitBreaker} does not count it.
+ */
+public class LocalException extends IOException {
+
+    public LocalException(String message) {
+        super(message);
+    }
+
+    public LocalException(Throwable cause) {
+        super(cause.getMessage() != null ? cause.getMessage() : cause.toString(), cause);
+    }
+}
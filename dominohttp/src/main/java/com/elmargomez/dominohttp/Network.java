@@ -17,29 +17,88 @@
 package com.elmargomez.dominohttp;
 
 import com.elmargomez.dominohttp.request.Request;
+import com.elmargomez.dominohttp.request.RequestBody;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.io.PushbackInputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
 
 public class Network {
+    public static final int DEFAULT_CONNECT_TIMEOUT = 15 * 1000;
+    public static final int DEFAULT_READ_TIMEOUT = 30 * 1000;
+    private static final int DEFAULT_BUFFER_SIZE = 4096;
+    private static final int DOWNLOAD_BUFFER_SIZE = 8192;
+    private static final long UNKNOWN_PROGRESS_STEP = 64 * 1024;
 
-    public Response getNetworkResponse(Request request) throws IOException {
+    private Cache cache;
+    private volatile boolean decompression;
+    private final Map<String, Integer> compressionThresholds = new ConcurrentHashMap<>();
+
+    /**
+     * Sets the cache that downloads are written to while they are received.
+     */
+    public void setCache(Cache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Asks for gzip or deflate encoded responses and decodes them while they are read.
+     */
+    public void setDecompression(boolean decompression) {
+        this.decompression = decompression;
+    }
 
+    /**
+     * Gzips the request bodies of at least {@code threshold} bytes sent to the host. Only
+     * enable this for hosts known to accept gzip encoded bodies. A negative threshold
+     * disables it again.
+     */
+    public void setRequestCompression(String host, int threshold) {
+        if (threshold < 0) {
+            compressionThresholds.remove(host);
+        } else {
+            compressionThresholds.put(host, threshold);
+        }
+    }
+
+    public Response getNetworkResponse(Request request) throws IOException {
+        return getNetworkResponse(request, null);
+    }
 
+    /**
+     * @param attempt lets another thread abort this call, may be null.
+     */
+    public Response getNetworkResponse(Request request, Attempt attempt) throws IOException {
         InputStream stream = null;
         OutputStream outputStream = null;
         BufferedReader errorStreamWriter = null;
+        long start = System.currentTimeMillis();
         try {
 
             HttpURLConnection con = openConnection(request.getURL());
+            if (attempt != null && !attempt.attach(con)) {
+                throw new InterruptedIOException("Attempt canceled");
+            }
+            setTimeouts(con, request);
             con.setRequestMethod(request.getMethod());
             // All header information combined together.
             HashMap<String, String> allHeaders = new HashMap<>();
@@ -49,6 +108,15 @@ public class Network {
             for (String i : allHeaders.keySet()) {
                 con.setRequestProperty(i, allHeaders.get(i));
             }
+            Cache.Data cacheEntry = request.getCacheEntry();
+            if (cacheEntry != null) {
+                addValidators(con, cacheEntry);
+            }
+            long resumeFrom = request.isDownload() ? addRange(con, request) : 0;
+            // Once set by us the platform leaves the decoding to us as well.
+            if (decompression && con.getRequestProperty("Accept-Encoding") == null) {
+                con.setRequestProperty("Accept-Encoding", "gzip, deflate");
+            }
 
             if (request.getMethod() == Request.PUT || request.getMethod() == Request.POST) {
                 con.setDoInput(true);
@@ -56,10 +124,39 @@ public class Network {
 
             // getByte data must be executed in other thread.
             if (request.getMethod() != Request.GET) {
-                byte[] data = request.getByteData();
-                outputStream = con.getOutputStream();
-                outputStream.write(data, 0, data.length);
-                outputStream.flush();
+                con.setDoOutput(true);
+                RequestBody body = request.getStreamingBody();
+                if (body != null) {
+                    // Streaming mode keeps HttpURLConnection from buffering the whole body.
+                    long length = body.getContentLength();
+                    if (shouldCompress(request, length)) {
+                        con.setRequestProperty("Content-Encoding", "gzip");
+                        con.setChunkedStreamingMode(0);
+                        GZIPOutputStream gzip = new GZIPOutputStream(con.getOutputStream(),
+                                DEFAULT_BUFFER_SIZE);
+                        outputStream = gzip;
+                        body.writeTo(gzip, request);
+                        gzip.finish();
+                    } else {
+                        if (length >= 0 && length <= Integer.MAX_VALUE) {
+                            con.setFixedLengthStreamingMode((int) length);
+                        } else {
+                            con.setChunkedStreamingMode(0);
+                        }
+                        outputStream = con.getOutputStream();
+                        body.writeTo(outputStream, request);
+                    }
+                } else {
+                    byte[] data = request.getByteData();
+                    if (shouldCompress(request, data.length)) {
+                        con.setRequestProperty("Content-Encoding", "gzip");
+                        data = gzip(data);
+                    }
+                    con.setFixedLengthStreamingMode(data.length);
+                    outputStream = con.getOutputStream();
+                    outputStream.write(data, 0, data.length);
+                    outputStream.flush();
+                }
             }
 
             // We are going to reuse the HashMap to avoid Object creation.
@@ -74,23 +171,82 @@ public class Network {
                 }
                 allHeaders.put(headerKey, header);
             }
+            long timeToFirstByte = System.currentTimeMillis() - start;
+
+            int responseCode = con.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && cacheEntry != null) {
+                // The cached body is still good, only its freshness changes.
+                Response response = new Response();
+                response.setHeader(merge(cacheEntry.header, allHeaders), start);
+                response.serverData = cacheEntry.data;
+                if (request.isDownload() && !request.isRefreshing()) {
+                    response.file = cache != null ? copyFromCache(cache, request) : null;
+                    if (response.file == null) {
+                        // Evicted meanwhile, the retry downloads it again.
+                        request.setCacheEntry(null);
+                        throw new LocalException("Cache entry of the download is gone");
+                    }
+                }
+                response.responseCode = responseCode;
+                response.notModified = true;
+                response.timeToFirstByte = timeToFirstByte;
+                return response;
+            }
 
-            if (con.getResponseCode() != 200) {
-                errorStreamWriter = new BufferedReader(new InputStreamReader(con.getErrorStream()));
+            boolean isResumed = responseCode == HttpURLConnection.HTTP_PARTIAL && resumeFrom > 0;
+            if (responseCode != 200 && !isResumed) {
+                if (resumeFrom > 0) {
+                    // Whatever went wrong, the next attempt starts over.
+                    request.setDownloadValidator(null);
+                }
                 StringBuilder builder = new StringBuilder();
-                String dummy;
-                while ((dummy = errorStreamWriter.readLine()) != null) {
-                    builder.append(dummy);
+                InputStream errorStream = con.getErrorStream();
+                if (errorStream != null && decompression) {
+                    try {
+                        errorStream = decode(errorStream, con.getContentEncoding());
+                    } catch (IOException e) {
+                        // A broken encoded body, there is no message to read.
+                        errorStream = null;
+                    }
+                }
+                if (errorStream != null) {
+                    errorStreamWriter = new BufferedReader(new InputStreamReader(errorStream));
+                    String dummy;
+                    while ((dummy = errorStreamWriter.readLine()) != null) {
+                        builder.append(dummy);
+                    }
                 }
 
-                throw new IOException(builder.toString());
+                throw new HttpException(responseCode, builder.toString());
             }
 
             Response response = new Response();
-            response.setHeader(allHeaders);
-            stream = con.getInputStream();
-            response.serverData = getBytes(stream);
-            response.responseCode = con.getResponseCode();
+            response.setHeader(allHeaders, start);
+            InputStream raw = con.getInputStream();
+            stream = decode(raw, con.getContentEncoding());
+            // The content length counts the encoded bytes.
+            int length = stream == raw ? con.getContentLength() : -1;
+            if (request.isDownload()) {
+                long offset = 0;
+                if (isResumed) {
+                    offset = getRangeStart(con.getHeaderField("Content-Range"));
+                    if (offset != resumeFrom) {
+                        request.setDownloadValidator(null);
+                        throw new IOException("Unexpected Content-Range "
+                                + con.getHeaderField("Content-Range"));
+                    }
+                } else if (stream == raw) {
+                    request.setDownloadValidator(getValidator(con));
+                }
+                response.file = download(request, response, stream, length, offset);
+            } else if (request.isStreaming()) {
+                response.result = parse(request, response, stream, length);
+                response.isParsed = true;
+            } else {
+                response.serverData = getBytes(stream, length);
+            }
+            response.responseCode = responseCode;
+            response.timeToFirstByte = timeToFirstByte;
             return response;
 
         } catch (IOException e) {
@@ -108,104 +264,458 @@ public class Network {
         }
     }
 
+    /**
+     * Writes the body to the request's download file through a small pooled buffer, and
+     * to the cache at the same time if the request is cached, so the body is never held
+     * in memory as a whole. A refresh only goes to the cache, the file was already
+     * delivered from it.
+     *
+     * @param offset the number of bytes already in the file when resuming it.
+     * @return the file, or null for a refresh.
+     */
+    private File download(Request request, Response response, InputStream stream,
+                          long length, long offset) throws IOException {
+        File file = request.isRefreshing() ? null : request.getDownloadFile();
+        Cache.Writer writer = null;
+        if (cache != null && request.shouldCached() && response.isStorable) {
+            writer = cache.edit(Variants.prepareKey(cache, request, response.header),
+                    new Cache.Data(response));
+        }
+
+        long total = length >= 0 ? offset + length : -1;
+        Request.ProgressListener listener = request.getProgressListener();
+        long step = total > 0 ? Math.max(1, total / 100) : UNKNOWN_PROGRESS_STEP;
+        ByteArrayPool pool = ByteArrayPool.getPool();
+        byte[] buffer = pool.getBuf(DOWNLOAD_BUFFER_SIZE);
+        OutputStream out = null;
+        try {
+            if (writer != null && offset > 0) {
+                copyPrefix(file, offset, writer.getStream(), buffer);
+            }
+            if (file != null) {
+                out = new FileOutputStream(file, offset > 0);
+            }
+            long received = offset;
+            long reported = offset;
+            int read;
+            while (-1 != (read = stream.read(buffer))) {
+                if (out != null) {
+                    out.write(buffer, 0, read);
+                }
+                if (writer != null) {
+                    writer.getStream().write(buffer, 0, read);
+                }
+                received += read;
+                if (listener != null && received - reported >= step) {
+                    reported = received;
+                    listener.progress(request, received, total);
+                }
+            }
+            if (total >= 0 && received != total) {
+                if (received > total) {
+                    // The partial file can not be trusted anymore.
+                    request.setDownloadValidator(null);
+                }
+                throw new IOException("Expected " + total + " bytes, read " + received + " bytes");
+            }
+            if (listener != null && received != reported) {
+                listener.progress(request, received, total);
+            }
+            if (out != null) {
+                out.close();
+                out = null;
+            }
+            if (writer != null) {
+                Cache.Writer committing = writer;
+                writer = null;
+                try {
+                    committing.commit();
+                } catch (IOException e) {
+                    // The download itself is fine, it just will not be cached.
+                    DominoLog.debug("Unable to cache [id: " + request.getRequestKey() + "]");
+                }
+            }
+            return file;
+        } finally {
+            pool.returnBuf(buffer);
+            if (out != null) {
+                out.close();
+            }
+            if (writer != null) {
+                writer.abort();
+            }
+        }
+    }
+
+    /**
+     * Lets the request parse the body while it is received, teeing it to the cache. A
+     * refresh is only read into the cache, its result would not be delivered.
+     */
+    private Object parse(Request request, Response response, InputStream stream, int length)
+            throws IOException {
+        Cache.Writer writer = null;
+        if (cache != null && request.shouldCached() && response.isStorable) {
+            writer = cache.edit(Variants.prepareKey(cache, request, response.header),
+                    new Cache.Data(response));
+        }
+
+        ResponseStream in = new ResponseStream(stream,
+                writer != null ? writer.getStream() : null, request, length);
+        ByteArrayPool pool = ByteArrayPool.getPool();
+        byte[] buffer = pool.getBuf(DOWNLOAD_BUFFER_SIZE);
+        try {
+            Object result = null;
+            if (!request.isRefreshing()) {
+                try {
+                    result = request.parseResponse(in);
+                } catch (IOException e) {
+                    if (in.getError() != null) {
+                        throw e;
+                    }
+                    throw new ParseException(e);
+                } catch (RuntimeException e) {
+                    throw new ParseException(e);
+                }
+            }
+            in.finish(buffer);
+
+            if (writer != null) {
+                Cache.Writer committing = writer;
+                writer = null;
+                try {
+                    committing.commit();
+                } catch (IOException e) {
+                    DominoLog.debug("Unable to cache [id: " + request.getRequestKey() + "]");
+                }
+            }
+            return result;
+        } finally {
+            pool.returnBuf(buffer);
+            if (writer != null) {
+                writer.abort();
+            }
+        }
+    }
+
+    /**
+     * Asks for the rest of a partial download, on the condition that it did not change.
+     *
+     * @return the number of bytes already downloaded, or 0 to download it all.
+     */
+    private long addRange(HttpURLConnection con, Request request) throws IOException {
+        String validator = request.getDownloadValidator();
+        if (validator == null || request.isRefreshing()) {
+            return 0;
+        }
+
+        long length = request.getDownloadFile().length();
+        if (length > 0) {
+            con.setRequestProperty("Range", "bytes=" + length + "-");
+            con.setRequestProperty("If-Range", validator);
+            // Ranges count the encoded bytes while the file holds the decoded ones.
+            con.setRequestProperty("Accept-Encoding", "identity");
+        }
+        return length;
+    }
+
+    /**
+     * @return the strong ETag, or else the Last-Modified date, or null if neither is set.
+     */
+    private static String getValidator(HttpURLConnection con) {
+        String etag = con.getHeaderField("ETag");
+        if (etag != null && !etag.startsWith("W/")) {
+            return etag;
+        }
+        return con.getHeaderField("Last-Modified");
+    }
+
+    /**
+     * @return the first byte position of a "bytes first-last/length" range, or -1.
+     */
+    private static long getRangeStart(String contentRange) {
+        if (contentRange == null || !contentRange.startsWith("bytes ")) {
+            return -1;
+        }
+        int dash = contentRange.indexOf('-');
+        if (dash < 0) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentRange.substring(6, dash).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Writes the cached body of a download to its file through a small pooled buffer,
+     * so a cache hit does not hold the body in memory either.
+     *
+     * @return the file, or null if nothing is cached for the request.
+     */
+    public static File copyFromCache(Cache cache, Request request) throws IOException {
+        String key = Variants.lookupKey(cache, request);
+        InputStream in = key != null ? cache.openStream(key) : null;
+        if (in == null) {
+            return null;
+        }
+
+        File file = request.getDownloadFile();
+        ByteArrayPool pool = ByteArrayPool.getPool();
+        byte[] buffer = pool.getBuf(DOWNLOAD_BUFFER_SIZE);
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(file);
+            int read;
+            while (-1 != (read = in.read(buffer))) {
+                out.write(buffer, 0, read);
+            }
+            out.close();
+            out = null;
+            return file;
+        } finally {
+            pool.returnBuf(buffer);
+            in.close();
+            if (out != null) {
+                out.close();
+            }
+        }
+    }
+
+    private static void copyPrefix(File file, long length, OutputStream out, byte[] buffer)
+            throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            long left = length;
+            int read;
+            while (left > 0
+                    && -1 != (read = in.read(buffer, 0, (int) Math.min(buffer.length, left)))) {
+                out.write(buffer, 0, read);
+                left -= read;
+            }
+            if (left > 0) {
+                throw new IOException("Partial download shorter than " + length + " bytes");
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private boolean shouldCompress(Request request, long length) {
+        Integer threshold = compressionThresholds.get(request.getHost());
+        return threshold != null && (length < 0 || length >= threshold);
+    }
+
+    /**
+     * Wraps the stream so it is decoded while it is read. An empty body, e.g. of a HEAD or
+     * a 204, has nothing to decode and stays empty.
+     */
+    private static InputStream decode(InputStream stream, String encoding) throws IOException {
+        boolean gzip = "gzip".equalsIgnoreCase(encoding);
+        if (!gzip && !"deflate".equalsIgnoreCase(encoding)) {
+            return stream;
+        }
+
+        // GZIPInputStream reads the header right away and fails on an empty body.
+        PushbackInputStream in = new PushbackInputStream(stream, 1);
+        int first = in.read();
+        if (first == -1) {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+        in.unread(first);
+        return gzip ? new GZIPInputStream(in, DEFAULT_BUFFER_SIZE) : new InflaterInputStream(in);
+    }
+
+    public static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length / 4 + 64);
+        GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+        gzip.write(data);
+        gzip.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @return the stored headers updated with those of a 304, the names compared
+     * ignoring their case. The stored Age and Date are dropped, they describe the
+     * original response and would count its age again against the new lifetime.
+     */
+    private static Map<String, String> merge(Map<String, String> stored,
+                                             Map<String, String> updated) {
+        HashMap<String, String> merged = new HashMap<>();
+        if (stored != null) {
+            for (Map.Entry<String, String> entry : stored.entrySet()) {
+                String name = entry.getKey();
+                if (name == null || (!name.equalsIgnoreCase("Age")
+                        && !name.equalsIgnoreCase("Date"))) {
+                    merged.put(name, entry.getValue());
+                }
+            }
+        }
+        for (Map.Entry<String, String> entry : updated.entrySet()) {
+            if (entry.getKey() == null) {
+                continue;
+            }
+            Iterator<String> names = merged.keySet().iterator();
+            while (names.hasNext()) {
+                String name = names.next();
+                if (name != null && name.equalsIgnoreCase(entry.getKey())) {
+                    names.remove();
+                }
+            }
+            merged.put(entry.getKey(), entry.getValue());
+        }
+        return merged;
+    }
+
+    /**
+     * Turns the validators of the cached response into conditional request headers,
+     * unless the request sets them itself.
+     */
+    private void addValidators(HttpURLConnection con, Cache.Data cacheEntry) {
+        String etag = cacheEntry.getHeader("ETag");
+        if (etag != null && con.getRequestProperty("If-None-Match") == null) {
+            con.setRequestProperty("If-None-Match", etag);
+        }
+        String lastModified = cacheEntry.getHeader("Last-Modified");
+        if (lastModified != null && con.getRequestProperty("If-Modified-Since") == null) {
+            con.setRequestProperty("If-Modified-Since", lastModified);
+        }
+    }
+
+    /**
+     * Caps the connect and read timeouts with the time left before the request's deadline.
+     */
+    private void setTimeouts(HttpURLConnection con, Request request) throws IOException {
+        int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+        int readTimeout = DEFAULT_READ_TIMEOUT;
+        if (request.getDeadline() > 0) {
+            long left = request.getDeadline() - System.currentTimeMillis();
+            if (left <= 0) {
+                throw new LocalException(Request.ERROR_TIMEOUT);
+            }
+            connectTimeout = (int) Math.min(connectTimeout, left);
+            readTimeout = (int) Math.min(readTimeout, left);
+        }
+        con.setConnectTimeout(connectTimeout);
+        con.setReadTimeout(readTimeout);
+    }
+
     public HttpURLConnection openConnection(String url) throws IOException {
         return (HttpURLConnection) new URL(url).openConnection();
     }
 
     public static byte[] getBytes(InputStream stream) throws IOException {
-        ByteArrayOutputStream byteArray = null;
-        byte[] buffer = new byte[1024];
+        return getBytes(stream, -1);
+    }
+
+    /**
+     * Reads the whole stream. When the length is known the bytes are read straight into
+     * an array of that size, otherwise into a pooled buffer that is copied once at the end.
+     *
+     * @param length the expected number of bytes, or -1 if unknown.
+     */
+    public static byte[] getBytes(InputStream stream, int length) throws IOException {
+        if (length >= 0) {
+            byte[] bytes = new byte[length];
+            int pos = 0;
+            int read;
+            while (pos < length && -1 != (read = stream.read(bytes, pos, length - pos))) {
+                pos += read;
+            }
+            if (pos != length) {
+                throw new IOException("Expected " + length + " bytes, read " + pos + " bytes");
+            }
+            return bytes;
+        }
+
+        ByteArrayPool pool = ByteArrayPool.getPool();
+        byte[] buffer = pool.getBuf(DEFAULT_BUFFER_SIZE);
+        int count = 0;
         int read;
         try {
-            byteArray = new ByteArrayOutputStream();
-            while (-1 != (read = stream.read(buffer))) {
-                byteArray.write(buffer, 0, read);
+            while (-1 != (read = stream.read(buffer, count, buffer.length - count))) {
+                count += read;
+                if (count == buffer.length) {
+                    byte[] bigger = pool.getBuf(buffer.length * 2);
+                    System.arraycopy(buffer, 0, bigger, 0, count);
+                    pool.returnBuf(buffer);
+                    buffer = bigger;
+                }
             }
-            byteArray.flush();
-            buffer = byteArray.toByteArray();
-        } catch (IOException e) {
-            throw e;
+            return Arrays.copyOf(buffer, count);
         } finally {
-            if (byteArray != null) {
-                byteArray.close();
+            pool.returnBuf(buffer);
+        }
+    }
+
+    /**
+     * A handle on one call of {@link #getNetworkResponse(Request, Attempt)}, canceling it
+     * drops its connection.
+     */
+    public static class Attempt {
+        private HttpURLConnection connection;
+        private boolean isCanceled;
+
+        synchronized boolean attach(HttpURLConnection connection) {
+            this.connection = connection;
+            return !isCanceled;
+        }
+
+        public synchronized void cancel() {
+            isCanceled = true;
+            if (connection != null) {
+                connection.disconnect();
             }
         }
-        return buffer;
+
+        public synchronized boolean isCanceled() {
+            return isCanceled;
+        }
     }
 
     public class Response {
         public Map<String, String> header = new HashMap<>();
         public byte[] serverData;
+        /**
+         * The file the body was written to instead of {@link #serverData} for a download.
+         */
+        public File file;
+        /**
+         * True for a 304, {@link #serverData} is then the body of the revalidated entry.
+         */
+        public boolean notModified;
+        /**
+         * True if a streaming request parsed the body into {@link #result} while it was
+         * received.
+         */
+        public boolean isParsed;
+        public Object result;
         public int responseCode;
         public long ttl;
         public long softTTL;
+        public long timeToFirstByte;
 
-        // parse the network response
-        public void setHeader(HashMap<String, String> headers) {
-            this.header.putAll(headers);
-            long now = System.currentTimeMillis();
-
-            long serverDate = 0;
-            long serverExpires = 0;
-            long softExpire = 0;
-            long finalExpire = 0;
-            long maxAge = 0;
-            long staleWhileRevalidate = 0;
-            boolean hasCacheControl = false;
-            boolean mustRevalidate = false;
-
-            String headerValue;
-
-            headerValue = headers.get("Date");
-            if (headerValue != null) {
-                serverDate = DateGenerator.getGenerator().getEpoch(headerValue);
-            }
-
-            headerValue = headers.get("Cache-Control");
-            if (headerValue != null) {
-                hasCacheControl = true;
-                String[] tokens = headerValue.split(",");
-                for (int i = 0; i < tokens.length; i++) {
-                    String token = tokens[i].trim();
-                    if (token.equals("no-cache") || token.equals("no-store")) {
-                        return;
-                    } else if (token.startsWith("max-age=")) {
-                        try {
-                            maxAge = Long.parseLong(token.substring(8));
-                        } catch (Exception e) {
-                        }
-                    } else if (token.startsWith("stale-while-revalidate=")) {
-                        try {
-                            staleWhileRevalidate = Long.parseLong(token.substring(23));
-                        } catch (Exception e) {
-                        }
-                    } else if (token.equals("must-revalidate") || token.equals("proxy-revalidate")) {
-                        mustRevalidate = true;
-                    }
+        /**
+         * False if the response must not be cached, e.g. for no-store.
+         */
+        public boolean isStorable = true;
 
-                    // stale-while-revalidate and must-ravl,proxy-reval will not come together.
-                }
-            }
-
-            headerValue = headers.get("Expires");
-            if (headerValue != null) {
-                serverExpires = DateGenerator.getGenerator().getEpoch(headerValue);
-            }
-
-            // Cache-Control takes precedence over an Expires header, even if both exist and Expires
-            // is more restrictive.
-            if (hasCacheControl) {
-                softExpire = now + maxAge * 1000; // get time that our cache expires in millisecond.
-                finalExpire = mustRevalidate
-                        ? softExpire : softExpire + staleWhileRevalidate * 1000;
-            } else if (serverDate > 0 && serverExpires >= serverDate) {
-                // Default semantic for Expire header in HTTP specification is softExpire.
-                softExpire = now + (serverExpires - serverDate);
-                finalExpire = softExpire;
-            }
+        public void setHeader(HashMap<String, String> headers) {
+            setHeader(headers, System.currentTimeMillis());
+        }
 
-            softTTL = softExpire;
-            ttl = finalExpire;
+        /**
+         * Keeps the headers and computes the freshness of the response.
+         *
+         * @param requestTime when the request was sent, to correct the age of the response.
+         */
+        public void setHeader(Map<String, String> headers, long requestTime) {
+            this.header.putAll(headers);
+            CachePolicy policy = CachePolicy.compute(headers, requestTime,
+                    System.currentTimeMillis());
+            isStorable = policy.isStorable;
+            softTTL = policy.softTTL;
+            ttl = policy.ttl;
         }
 
     }
@@ -18,24 +18,32 @@ package com.elmargomez.dominohttp;
 
 import com.elmargomez.dominohttp.request.Request;
 
+import java.io.File;
 import java.io.IOException;
-import java.util.concurrent.BlockingQueue;
+import java.util.List;
 
 public class NetworkDispatcher extends Thread {
 
-    private BlockingQueue<Request> networkRequest;
+    private NetworkQueue networkRequest;
     private Cache cache;
     private ResponseSender responseSender;
     private Network network;
+    private InFlightRequests inFlight;
+    private DispatcherPool pool;
+    private CircuitBreaker circuitBreaker;
 
     private boolean isInterrupted;
 
-    public NetworkDispatcher(BlockingQueue<Request> networkRequest, Cache cache, Network network,
-                             ResponseSender responseSender) {
+    public NetworkDispatcher(NetworkQueue networkRequest, Cache cache, Network network,
+                             ResponseSender responseSender, InFlightRequests inFlight,
+                             DispatcherPool pool, CircuitBreaker circuitBreaker) {
         this.networkRequest = networkRequest;
         this.cache = cache;
         this.network = network;
         this.responseSender = responseSender;
+        this.inFlight = inFlight;
+        this.pool = pool;
+        this.circuitBreaker = circuitBreaker;
     }
 
     @Override
@@ -44,42 +52,169 @@ public class NetworkDispatcher extends Thread {
         while (true) {
             Request request = null;
             try {
-                request = networkRequest.take();
+                request = pool.poll();
             } catch (InterruptedException e) {
                 if (isInterrupted) {
                     return;
                 }
             }
 
-            if (request.isCanceled()) {
-                // We need to skip this request.
+            if (request == null) {
+                // Nothing to do for the whole idle timeout, the pool may let us go.
+                if (pool.retire(this)) {
+                    return;
+                }
                 continue;
             }
 
             try {
-                Network.Response networkResponse = network.getNetworkResponse(request);
-                if (request.shouldCached()) {
-                    Cache.Data data = new Cache.Data(networkResponse);
-                    cache.put(request.getRequestKey(), data);
-                }
+                process(request);
+            } finally {
+                networkRequest.release(request);
+            }
+        }
+    }
 
-                if (request.tagHolder.contains("refresh-cache")) {
-                    continue;
-                }
+    private void process(Request request) {
+        if (request.isCanceled()) {
+            // We need to skip this request, a duplicate may still be waiting for it.
+            Request next = inFlight.promote(request);
+            if (next != null && !networkRequest.requeue(next)) {
+                fail(next, Request.ERROR_QUEUE_STOPPED);
+            }
+            return;
+        }
+
+        if (request.hasExpired()) {
+            // Do not spend a connection on a request nobody is waiting for anymore.
+            fail(request, Request.ERROR_TIMEOUT);
+            return;
+        }
 
+        if (!circuitBreaker.allowRequest(request.getHost())) {
+            failFast(request);
+            return;
+        }
+
+        try {
+            Network.Response networkResponse = network.getNetworkResponse(request);
+            circuitBreaker.onSuccess(request.getHost());
+            pool.recordLatency(networkResponse.timeToFirstByte);
+            if (networkResponse.notModified) {
+                cache.refresh(Variants.key(request, networkResponse.header),
+                        new Cache.Data(networkResponse));
+            } else if (request.shouldCached() && networkResponse.isStorable
+                    && networkResponse.serverData != null) {
+                // Skipped for a download, it was written to the cache while it was received.
+                Cache.Data data = new Cache.Data(networkResponse);
+                cache.put(Variants.prepareKey(cache, request, networkResponse.header), data);
+            }
+
+            // Duplicates share this response, so the network and the cache see it once.
+            List<Request> followers = inFlight.finish(request);
+            responseSender.success(followers, networkResponse.serverData);
+            if (request.isRefreshing()) {
+                return;
+            }
+
+            if (networkResponse.file != null) {
+                responseSender.success(request, networkResponse.file);
+            } else if (networkResponse.isParsed) {
+                responseSender.successParsed(request, networkResponse.result);
+            } else {
                 responseSender.success(request, networkResponse.serverData);
-            } catch (IOException e) {
-                int retryCount = request.getRetryCount();
-                if (retryCount > 0) {
-                    request.decRetryCount();
-                    networkRequest.add(request);
-                } else {
-                    responseSender.failure(request, e.getMessage());
+            }
+        } catch (IOException e) {
+            if (e instanceof LocalException) {
+                circuitBreaker.onLocalFailure(request.getHost());
+            } else if (CircuitBreaker.isHostFailure(e)) {
+                circuitBreaker.onFailure(request.getHost());
+            } else {
+                circuitBreaker.onSuccess(request.getHost());
+            }
+
+            RetryPolicy retryPolicy = request.getRetryPolicy();
+            long delay = retryPolicy.getDelay(request.getRetryAttempt());
+            boolean inTime = request.getDeadline() == 0
+                    || request.getDeadline() > System.currentTimeMillis() + delay;
+            if (request.getRetryCount() > 0 && inTime && retryPolicy.isRetryable(e)) {
+                // Back off instead of hammering the failing endpoint.
+                request.decRetryCount();
+                if (!networkRequest.addDelayed(request, delay)) {
+                    // The queue is stopping, nothing would run the retry.
+                    fail(request, Request.ERROR_QUEUE_STOPPED);
                 }
+            } else if (!serveStaleOnError(request)) {
+                fail(request, e.getMessage());
             }
         }
     }
 
+    /**
+     * Answers a request whose host circuit is open without touching the network, from a
+     * stale cache entry if allowed and available.
+     */
+    private void failFast(Request request) {
+        Cache.Data stale = null;
+        if (circuitBreaker.shouldServeStale() && request.shouldCached()) {
+            stale = Variants.lookup(cache, request);
+        }
+
+        if (stale == null || !deliverStale(request, stale)) {
+            fail(request, Request.ERROR_CIRCUIT_OPEN);
+        }
+    }
+
+    /**
+     * Answers a request whose revalidation failed with its stale entry, if the entry's
+     * stale-if-error allows it.
+     *
+     * @return false if the request still has to fail.
+     */
+    private boolean serveStaleOnError(Request request) {
+        Cache.Data stale = request.getCacheEntry();
+        if (stale == null || !CachePolicy.canServeStaleOnError(stale,
+                System.currentTimeMillis())) {
+            return false;
+        }
+
+        DominoLog.debug("Serving Stale Request [id: " + request.getRequestKey() + "]");
+        return deliverStale(request, stale);
+    }
+
+    /**
+     * @return false if the body of a download could not be read from the cache.
+     */
+    private boolean deliverStale(Request request, Cache.Data stale) {
+        // A refreshing request was already answered with this entry.
+        boolean isRefresh = request.isRefreshing();
+        if (request.isDownload() && !isRefresh) {
+            // Downloads are never coalesced, there is nobody else to answer.
+            File file = null;
+            try {
+                file = Network.copyFromCache(cache, request);
+            } catch (IOException e) {
+                DominoLog.debug("Unable to read the cached download [id: "
+                        + request.getRequestKey() + ", " + e + "]");
+            }
+            if (file == null) {
+                return false;
+            }
+            responseSender.success(request, file);
+            return true;
+        }
+
+        responseSender.success(inFlight.finish(request), stale.data);
+        if (!isRefresh) {
+            responseSender.success(request, stale.data);
+        }
+        return true;
+    }
+
+    private void fail(Request request, String error) {
+        responseSender.failure(request, inFlight.finish(request), error);
+    }
+
     public void close() {
         isInterrupted = true;
         interrupt();
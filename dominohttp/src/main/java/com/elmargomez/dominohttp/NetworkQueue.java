@@ -0,0 +1,595 @@
+/*
+ * Copyright 2016 Elmar Rhex Gomez.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.elmargomez.dominohttp;
+
+import com.elmargomez.dominohttp.request.Request;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The queue between the cache stage and the {@link NetworkDispatcher}. Requests are kept
+ * per host, each host has a cap on the requests it may have in flight, and the hosts take
+ * turns so a slow host cannot hold every dispatcher. Among the hosts that may run a request
+ * the one holding the most urgent {@link Request.Priority} goes first, unless a request
+ * of another host is past its aging deadline.
+ * <p>
+ * Requests added with a delay, such as retries waiting for their backoff, are held
+ * aside and only become available once the delay has passed.
+ * <p>
+ * The queue can be bounded, in which case the {@link OverflowPolicy} decides what happens
+ * to new requests once it is full. Requests put back by the dispatchers are always taken.
+ * The canceled requests are purged first, they do not count against the capacity.
+ * <p>
+ * A host can also be given a request rate. Its requests then wait in the queue for a
+ * token instead of holding a dispatcher.
+ * <p>
+ * Once {@link #close(List) closed} the queue refuses every request until it is opened
+ * again, so nothing is left in it after the last drain.
+ */
+public class NetworkQueue {
+    private static final int DEFAULT_HOST_LIMIT = 4;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final Map<String, Host> hosts = new HashMap<>();
+    // The hosts in round-robin order, the one served last is at the end.
+    private final List<Host> rotation = new ArrayList<>();
+    private final Map<String, Integer> hostLimits = new HashMap<>();
+    // Kept apart from the hosts, which come and go, so an idle host does not refill early.
+    private final Map<String, TokenBucket> rateLimits = new HashMap<>();
+    private final PriorityQueue<DelayedRequest> delayed = new PriorityQueue<>();
+    private int defaultHostLimit = DEFAULT_HOST_LIMIT;
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final OverflowPolicy.Listener listener;
+    private int capacity = Integer.MAX_VALUE;
+    private OverflowPolicy policy = OverflowPolicy.BLOCK;
+    private int count;
+    private boolean isShutdown;
+    private boolean isClosed;
+    // The requests that could run right now, kept up to date under the lock so the pool
+    // can read it on every request without taking the lock.
+    private volatile int readyCount;
+
+    public NetworkQueue(OverflowPolicy.Listener listener) {
+        this.listener = listener;
+    }
+
+    public void setCapacity(int capacity, OverflowPolicy policy) {
+        lock.lock();
+        try {
+            this.capacity = capacity;
+            this.policy = policy;
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void setDefaultHostLimit(int limit) {
+        lock.lock();
+        try {
+            defaultHostLimit = limit;
+            for (Host host : rotation) {
+                if (!hostLimits.containsKey(host.name)) {
+                    host.limit = limit;
+                    updateReady(host);
+                }
+            }
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void setHostLimit(String hostName, int limit) {
+        lock.lock();
+        try {
+            hostLimits.put(hostName, limit);
+            Host host = hosts.get(hostName);
+            if (host != null) {
+                host.limit = limit;
+                updateReady(host);
+            }
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Limits the host to the given number of requests per second, with bursts of up to
+     * {@code burst} requests. A rate of zero removes the limit.
+     */
+    public void setHostRateLimit(String hostName, double permitsPerSecond, int burst) {
+        lock.lock();
+        try {
+            TokenBucket bucket = null;
+            if (permitsPerSecond > 0) {
+                bucket = new TokenBucket(permitsPerSecond, burst);
+                rateLimits.put(hostName, bucket);
+            } else {
+                rateLimits.remove(hostName);
+            }
+
+            Host host = hosts.get(hostName);
+            if (host != null) {
+                host.bucket = bucket;
+                updateReady(host);
+            }
+            available.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adds the request, applying the overflow policy if the queue is full.
+     *
+     * @return false if the queue is closed and the request was not taken.
+     */
+    public boolean add(Request request) throws InterruptedException {
+        boolean isTaken = true;
+        Request victim = null;
+        List<Request> purged = null;
+        lock.lockInterruptibly();
+        try {
+            if (count >= capacity) {
+                purged = purgeCanceled(purged);
+            }
+            while (count >= capacity && policy == OverflowPolicy.BLOCK && !isClosed) {
+                notFull.await();
+                if (count >= capacity) {
+                    purged = purgeCanceled(purged);
+                }
+            }
+
+            // Checked after the wait too, the queue may have been closed meanwhile.
+            if (isClosed) {
+                isTaken = false;
+            } else if (count >= capacity) {
+                List<Request> queued = new ArrayList<>(count);
+                for (Host host : rotation) {
+                    queued.addAll(host.pending);
+                }
+                victim = policy.selectVictim(queued, request);
+                if (victim != request) {
+                    Host host = hosts.get(victim.getHost());
+                    host.pending.remove(victim);
+                    updateReady(host);
+                    count--;
+                }
+            }
+
+            if (isTaken && victim != request) {
+                enqueue(request);
+                available.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (purged != null) {
+            for (Request canceled : purged) {
+                listener.onPurged(canceled);
+            }
+        }
+        if (victim != null) {
+            rejectedCount.incrementAndGet();
+            listener.onRejected(victim);
+        }
+        return isTaken;
+    }
+
+    /**
+     * Takes the canceled requests out of the host queues, so they do not hold room a live
+     * request could use.
+     *
+     * @return the list the purged requests were added to, created if needed.
+     */
+    private List<Request> purgeCanceled(List<Request> purged) {
+        for (Host host : rotation) {
+            boolean changed = false;
+            for (Iterator<Request> it = host.pending.iterator(); it.hasNext(); ) {
+                Request request = it.next();
+                if (request.isCanceled()) {
+                    it.remove();
+                    count--;
+                    changed = true;
+                    if (purged == null) {
+                        purged = new ArrayList<>();
+                    }
+                    purged.add(request);
+                }
+            }
+            if (changed) {
+                updateReady(host);
+            }
+        }
+        return purged;
+    }
+
+    /**
+     * Puts back a request that was already admitted, ignoring the capacity.
+     *
+     * @return false if the queue is closed and the request was not taken.
+     */
+    public boolean requeue(Request request) {
+        lock.lock();
+        try {
+            if (isClosed) {
+                return false;
+            }
+            enqueue(request);
+            available.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adds the request once the delay has passed, without holding a dispatcher meanwhile.
+     *
+     * @return false if the queue is shut down and the request was not taken.
+     */
+    public boolean addDelayed(Request request, long delayMillis) {
+        if (delayMillis <= 0) {
+            return requeue(request);
+        }
+
+        lock.lock();
+        try {
+            if (isShutdown || isClosed) {
+                return false;
+            }
+            long releaseTime = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+            delayed.add(new DelayedRequest(request, releaseTime));
+            // The waiting dispatchers must recompute how long they sleep.
+            available.signalAll();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void enqueue(Request request) {
+        Host host = hosts.get(request.getHost());
+        if (host == null) {
+            host = new Host(request.getHost());
+            Integer limit = hostLimits.get(host.name);
+            host.limit = limit != null ? limit : defaultHostLimit;
+            host.bucket = rateLimits.get(host.name);
+            hosts.put(host.name, host);
+            rotation.add(host);
+        }
+        host.pending.add(request);
+        updateReady(host);
+        count++;
+    }
+
+    /**
+     * Waits up to the timeout for a request whose host is under its limit. The request
+     * counts against its host until {@link #release(Request)} is called.
+     *
+     * @return the request, or null if the timeout elapsed.
+     */
+    public Request poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (true) {
+                long untilRelease = releaseDelayed();
+                Request request = next();
+                if (request != null) {
+                    return request;
+                }
+                if (nanos <= 0) {
+                    return null;
+                }
+                long waited = Math.min(nanos, Math.min(untilRelease, untilToken()));
+                nanos -= waited - available.awaitNanos(waited);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Frees the host slot taken by a request returned from {@link #poll(long, TimeUnit)}.
+     */
+    public void release(Request request) {
+        releaseSlot(request.getHost());
+    }
+
+    /**
+     * Takes a slot of a host that has requests running, for a second attempt of one of
+     * them. It also takes a token if the host is rate limited.
+     *
+     * @return false if the host is at its limit or out of tokens.
+     */
+    public boolean tryAcquireSlot(String hostName) {
+        lock.lock();
+        try {
+            Host host = hosts.get(hostName);
+            if (host == null || host.running >= host.limit) {
+                return false;
+            }
+            if (host.bucket != null && !host.bucket.tryAcquire(System.nanoTime())) {
+                return false;
+            }
+            host.running++;
+            updateReady(host);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Frees a slot taken by {@link #tryAcquireSlot(String)}.
+     */
+    public void releaseSlot(String hostName) {
+        lock.lock();
+        try {
+            Host host = hosts.get(hostName);
+            if (host == null) {
+                return;
+            }
+            host.running--;
+            updateReady(host);
+            if (host.running == 0 && host.pending.isEmpty()) {
+                hosts.remove(host.name);
+                rotation.remove(host);
+            }
+            available.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Refuses the delayed requests from now on, e.g. retries, since the queue is about to
+     * stop. The other requests are still taken until it is closed.
+     */
+    public void shutdown() {
+        lock.lock();
+        try {
+            isShutdown = true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Closes the queue and moves every queued request, including the delayed ones, to the
+     * list. The requests offered afterwards are refused until {@link #open()}.
+     *
+     * @return the number of removed requests.
+     */
+    public int close(List<Request> list) {
+        lock.lock();
+        try {
+            isShutdown = true;
+            isClosed = true;
+            int c = list.size();
+            for (DelayedRequest d : delayed) {
+                list.add(d.request);
+            }
+            delayed.clear();
+            for (Host host : rotation) {
+                list.addAll(host.pending);
+                host.pending.clear();
+                host.ready = 0;
+            }
+            readyCount = 0;
+            count = 0;
+            notFull.signalAll();
+            return list.size() - c;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes requests again after {@link #shutdown()} or {@link #close(List)}.
+     */
+    public void open() {
+        lock.lock();
+        try {
+            isShutdown = false;
+            isClosed = false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of requests taken by the dispatchers and not released yet.
+     */
+    public int runningCount() {
+        lock.lock();
+        try {
+            int running = 0;
+            for (Host host : rotation) {
+                running += host.running;
+            }
+            return running;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of queued requests, including the delayed ones.
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return count + delayed.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of queued requests that could run right now without going
+     * over their host limit. It is read without the lock, and the tokens of a rate
+     * limited host are counted as of its last change.
+     */
+    public int readyCount() {
+        return readyCount;
+    }
+
+    /**
+     * @return the number of requests given up because the queue was full.
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * Moves the delayed requests whose time has come to their host queues.
+     *
+     * @return the time in nanoseconds until the next delayed request is due.
+     */
+    private long releaseDelayed() {
+        long now = System.nanoTime();
+        while (!delayed.isEmpty()) {
+            DelayedRequest next = delayed.peek();
+            if (next.releaseTime - now > 0) {
+                return next.releaseTime - now;
+            }
+            delayed.poll();
+            enqueue(next.request);
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * @return the time in nanoseconds until a host waiting for a token gets one.
+     */
+    private long untilToken() {
+        long now = System.nanoTime();
+        long wait = Long.MAX_VALUE;
+        for (Host host : rotation) {
+            if (host.bucket != null && !host.pending.isEmpty() && host.running < host.limit) {
+                wait = Math.min(wait, host.bucket.nanosUntilToken(now));
+            }
+        }
+        return wait;
+    }
+
+    private Request next() {
+        Host best = null;
+        long now = System.nanoTime();
+        int c = rotation.size();
+        for (int i = 0; i < c; i++) {
+            Host host = rotation.get(i);
+            if (host.pending.isEmpty() || host.running >= host.limit) {
+                continue;
+            }
+            if (host.bucket != null && host.bucket.nanosUntilToken(now) > 0) {
+                continue;
+            }
+            // Strictly better only, so equal ranks keep the round-robin order.
+            if (best == null || outranks(host.pending.peek(), best.pending.peek())) {
+                best = host;
+            }
+        }
+
+        if (best == null) {
+            return null;
+        }
+
+        if (best.bucket != null) {
+            best.bucket.tryAcquire(now);
+        }
+        rotation.remove(best);
+        rotation.add(best);
+        best.running++;
+        count--;
+        notFull.signal();
+        Request request = best.pending.poll();
+        updateReady(best);
+        return request;
+    }
+
+    /**
+     * Ranks the heads of two hosts like {@link Request#compareTo(Request)}, so a request
+     * past its aging deadline also overtakes the other hosts, but without the sequence
+     * tiebreak, which is left to the round-robin order.
+     */
+    private static boolean outranks(Request request, Request another) {
+        if (request.getAgingDeadline() != another.getAgingDeadline()) {
+            return request.getAgingDeadline() < another.getAgingDeadline();
+        }
+        return request.getPriority().ordinal() < another.getPriority().ordinal();
+    }
+
+    /**
+     * Recounts the requests of the host that could run right now.
+     */
+    private void updateReady(Host host) {
+        int c = Math.min(host.pending.size(), host.limit - host.running);
+        if (host.bucket != null && c > 0) {
+            c = Math.min(c, host.bucket.available(System.nanoTime()));
+        }
+        c = Math.max(0, c);
+        readyCount += c - host.ready;
+        host.ready = c;
+    }
+
+    private static class DelayedRequest implements Comparable<DelayedRequest> {
+        private final Request request;
+        private final long releaseTime;
+
+        private DelayedRequest(Request request, long releaseTime) {
+            this.request = request;
+            this.releaseTime = releaseTime;
+        }
+
+        @Override
+        public int compareTo(DelayedRequest another) {
+            long diff = releaseTime - another.releaseTime;
+            return diff < 0 ? -1 : (diff == 0 ? 0 : 1);
+        }
+    }
+
+    private static class Host {
+        private final String name;
+        private final PriorityQueue<Request> pending = new PriorityQueue<>();
+        private int limit;
+        private int running;
+        private int ready;
+        private TokenBucket bucket;
+
+        private Host(String name) {
+            this.name = name;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2016 Elmar Rhex Gomez.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.elmargomez.dominohttp;
+
+import com.elmargomez.dominohttp.request.Request;
+
+/**
+ * What a bounded queue does with a new request when it is full.
+ */
+public enum OverflowPolicy {
+    /**
+     * The caller waits until there is room.
+     */
+    BLOCK,
+    /**
+     * The new request fails with {@link Request#ERROR_QUEUE_FULL}.
+     */
+    REJECT,
+    /**
+     * The queued request with the lowest priority fails to make room, or the new request
+     * if nothing queued has a lower priority.
+     */
+    DROP_LOWEST_PRIORITY,
+    /**
+     * The request that has been queued the longest fails to make room.
+     */
+    DROP_OLDEST;
+
+    /**
+     * Told about the requests given up because a queue was full.
+     */
+    public interface Listener {
+
+        void onRejected(Request request);
+
+        /**
+         * Called for a canceled request taken out of a full queue to make room. A
+         * duplicate waiting for it may have to be queued in its place.
+         */
+        void onPurged(Request request);
+
+    }
+
+    /**
+     * @return the request to give up, which may be the incoming request itself.
+     */
+    Request selectVictim(Iterable<Request> queued, Request incoming) {
+        Request victim = null;
+        switch (this) {
+            case DROP_LOWEST_PRIORITY:
+                for (Request request : queued) {
+                    if (victim == null || isLower(request, victim)) {
+                        victim = request;
+                    }
+                }
+                if (victim == null || !isLower(victim, incoming)) {
+                    return incoming;
+                }
+                return victim;
+            case DROP_OLDEST:
+                for (Request request : queued) {
+                    if (victim == null || request.getSequence() < victim.getSequence()) {
+                        victim = request;
+                    }
+                }
+                return victim == null ? incoming : victim;
+            default:
+                return incoming;
+        }
+    }
+
+    private static boolean isLower(Request a, Request b) {
+        int diff = a.getPriority().ordinal() - b.getPriority().ordinal();
+        return diff > 0 || (diff == 0 && a.getSequence() > b.getSequence());
+    }
+}
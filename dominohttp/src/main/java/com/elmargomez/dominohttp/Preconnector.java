@@ -0,0 +1,169 @@
+/*
+ * Copyright 2016 Elmar Rhex Gomez.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.elmargomez.dominohttp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Keeps known hosts warm while the queue runs. Each origin is resolved and sent a HEAD
+ * request when the queue starts and then periodically, so the first real request to the
+ * host finds its address in the resolver cache and a kept-alive connection in the
+ * platform's connection pool instead of paying the DNS, TCP and TLS setup itself.
+ */
+public class Preconnector {
+    private static final long DEFAULT_INTERVAL = 60 * 1000;
+    private static final int BUFFER_SIZE = 512;
+
+    private final Network network;
+    private final CopyOnWriteArrayList<String> origins = new CopyOnWriteArrayList<>();
+    private volatile long interval = DEFAULT_INTERVAL;
+    private Worker worker;
+
+    public Preconnector(Network network) {
+        this.network = network;
+    }
+
+    /**
+     * Adds the origin of the URL, e.g. {@code https://api.example.com}, to the warmed
+     * hosts. It is warmed right away if the queue is running.
+     */
+    public void add(String url) {
+        String origin;
+        try {
+            URL u = new URL(url);
+            origin = u.getProtocol() + "://" + u.getAuthority();
+        } catch (MalformedURLException e) {
+            throw new IllegalArgumentException("Invalid URL " + url, e);
+        }
+
+        if (!origins.addIfAbsent(origin)) {
+            return;
+        }
+        synchronized (this) {
+            if (worker != null) {
+                worker.wake();
+            }
+        }
+    }
+
+    /**
+     * Sets how often the hosts are warmed again, it should be a bit shorter than the
+     * keep-alive timeout of the servers.
+     */
+    public void setInterval(long millis) {
+        interval = millis;
+    }
+
+    public synchronized void start() {
+        if (worker != null)
+            return;
+
+        worker = new Worker();
+        worker.start();
+    }
+
+    public synchronized void stop() {
+        if (worker == null)
+            return;
+
+        worker.close();
+        worker = null;
+    }
+
+    private void warm(String origin) {
+        InputStream stream = null;
+        try {
+            InetAddress.getAllByName(new URL(origin).getHost());
+            HttpURLConnection con = network.openConnection(origin);
+            con.setConnectTimeout(Network.DEFAULT_CONNECT_TIMEOUT);
+            con.setReadTimeout(Network.DEFAULT_READ_TIMEOUT);
+            con.setRequestMethod("HEAD");
+            int responseCode = con.getResponseCode();
+            // A fully read and closed response, unlike disconnect(), leaves the connection
+            // in the pool.
+            stream = responseCode < 400 ? con.getInputStream() : con.getErrorStream();
+            if (stream != null) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                while (stream.read(buffer) != -1) {
+                }
+            }
+            DominoLog.debug("Preconnected [origin: " + origin + "]");
+        } catch (IOException e) {
+            DominoLog.debug("Preconnect failed [origin: " + origin + ", " + e + "]");
+        } finally {
+            if (stream != null) {
+                try {
+                    stream.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private class Worker extends Thread {
+        private final Object lock = new Object();
+        private volatile boolean isInterrupted;
+        private boolean isWoken;
+
+        Worker() {
+            setName("DominoPreconnect");
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (!isInterrupted) {
+                for (String origin : origins) {
+                    if (isInterrupted) {
+                        return;
+                    }
+                    warm(origin);
+                }
+
+                try {
+                    synchronized (lock) {
+                        if (!isWoken) {
+                            lock.wait(interval);
+                        }
+                        isWoken = false;
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+        void wake() {
+            synchronized (lock) {
+                isWoken = true;
+                lock.notifyAll();
+            }
+        }
+
+        void close() {
+            isInterrupted = true;
+            interrupt();
+        }
+    }
+}
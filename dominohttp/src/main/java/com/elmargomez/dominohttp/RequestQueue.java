@@ -18,51 +18,247 @@ package com.elmargomez.dominohttp;
 
 import com.elmargomez.dominohttp.request.Request;
 
-import java.util.concurrent.PriorityBlockingQueue;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class RequestQueue {
-    private static final int MIN_REQUEST_DISPATCHER_COUNT = 4;
+    private static final int MIN_REQUEST_DISPATCHER_COUNT = 1;
+    private static final int MAX_REQUEST_DISPATCHER_COUNT = 8;
+    private static final long DRAIN_POLL_INTERVAL = 20;
 
-    private final PriorityBlockingQueue<Request> networkRequest = new PriorityBlockingQueue<>();
-    private final PriorityBlockingQueue<Request> cachedRequest = new PriorityBlockingQueue<>();
+    private final OverflowPolicy.Listener overflowListener = new OverflowPolicy.Listener() {
+        @Override
+        public void onRejected(Request request) {
+            reject(request);
+        }
+
+        @Override
+        public void onPurged(Request request) {
+            Request next = inFlight.promote(request);
+            if (next != null && !cachedRequest.requeue(next)) {
+                sender.failure(next, inFlight.finish(next), Request.ERROR_QUEUE_STOPPED);
+            }
+        }
+    };
+    private final NetworkQueue networkRequest = new NetworkQueue(overflowListener);
+    private final CacheQueue cachedRequest = new CacheQueue(overflowListener);
+    private final InFlightRequests inFlight = new InFlightRequests();
+    private final TagIndex tagIndex = new TagIndex();
+    private final CircuitBreaker circuitBreaker = new CircuitBreaker();
+    private final AtomicLong sequenceGenerator = new AtomicLong();
+    private volatile long agingInterval;
     private boolean isRunning;
+    private volatile boolean isStopping;
 
     private Cache cache = null;
-    private Network network = null;
-    private NetworkDispatcher[] dispatchers;
+    private HedgingNetwork network = null;
+    private DispatcherPool dispatcherPool;
+    private Preconnector preconnector;
     private CacheDispatcher cacheDispatcher;
     private ResponseSender sender;
 
-    public RequestQueue(Network network, Cache cache, int dispatcherCount) {
+    public RequestQueue(Network network, Cache cache, int minDispatcherCount,
+                        int maxDispatcherCount) {
+        this(network, cache, minDispatcherCount, maxDispatcherCount,
+                DeliveryExecutors.mainThread());
+    }
+
+    /**
+     * @param delivery the executor the responses are delivered on, unless a request sets
+     *                 its own. With {@link DeliveryExecutors#direct()} the queue runs
+     *                 without a Looper, e.g. on a plain JVM.
+     */
+    public RequestQueue(Network network, Cache cache, int minDispatcherCount,
+                        int maxDispatcherCount, Executor delivery) {
 
         if (network == null) {
             network = new Network();
         }
 
-        this.network = network;
+        this.network = new HedgingNetwork(network, networkRequest, circuitBreaker);
+        this.network.setCache(cache);
+        this.preconnector = new Preconnector(network);
         this.cache = cache;
-        this.dispatchers = new NetworkDispatcher[dispatcherCount];
-        this.sender = new ResponseSender();
+        this.sender = new ResponseSender(delivery);
+        this.sender.setTagIndex(tagIndex);
+        this.dispatcherPool = new DispatcherPool(networkRequest, cache, this.network, sender,
+                inFlight, circuitBreaker, minDispatcherCount, maxDispatcherCount);
+    }
+
+    public RequestQueue(Network network, Cache cache, int dispatcherCount) {
+        this(network, cache, dispatcherCount, dispatcherCount);
     }
 
     public RequestQueue(Cache cache) {
-        this(null, cache, MIN_REQUEST_DISPATCHER_COUNT);
+        this(null, cache, MIN_REQUEST_DISPATCHER_COUNT, MAX_REQUEST_DISPATCHER_COUNT);
+    }
+
+    /**
+     * Caps the number of requests that may be in flight at the same time for the host.
+     */
+    public void setHostConcurrencyLimit(String host, int limit) {
+        networkRequest.setHostLimit(host, limit);
+    }
+
+    public void setDefaultHostConcurrencyLimit(int limit) {
+        networkRequest.setDefaultHostLimit(limit);
+    }
+
+    /**
+     * Limits the host to the given number of requests per second, with bursts of up to
+     * {@code burst} requests. The requests over the rate wait in the queue.
+     */
+    public void setHostRateLimit(String host, double permitsPerSecond, int burst) {
+        networkRequest.setHostRateLimit(host, permitsPerSecond, burst);
+    }
+
+    /**
+     * Enables hedging for the GET requests marked with {@link Request#setIdempotent(boolean)}.
+     *
+     * @see HedgingNetwork#setHedging(float, float)
+     */
+    public void setHedging(float percentile, float budget) {
+        network.setHedging(percentile, budget);
+    }
+
+    /**
+     * @see Network#setDecompression(boolean)
+     */
+    public void setDecompression(boolean decompression) {
+        network.setDecompression(decompression);
+    }
+
+    /**
+     * @see Network#setRequestCompression(String, int)
+     */
+    public void setRequestCompression(String host, int threshold) {
+        network.setRequestCompression(host, threshold);
+    }
+
+    /**
+     * Keeps the host of the URL warm while the queue runs, so the first request to it
+     * does not pay the DNS lookup and the connection setup.
+     *
+     * @see Preconnector
+     */
+    public void preconnect(String url) {
+        preconnector.add(url);
+    }
+
+    public void setPreconnectInterval(long millis) {
+        preconnector.setInterval(millis);
+    }
+
+    /**
+     * @see ResponseSender#setBatchInterval(long)
+     */
+    public void setDeliveryBatching(long millis, ResponseSender.BatchListener listener) {
+        sender.setBatchListener(listener);
+        sender.setBatchInterval(millis);
+    }
+
+    /**
+     * @return the per-host circuit breaker, to configure its thresholds.
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    public DispatcherPool getDispatcherPool() {
+        return dispatcherPool;
+    }
+
+    /**
+     * @return the number of NetworkDispatcher currently running.
+     */
+    public int getDispatcherCount() {
+        return dispatcherPool.size();
+    }
+
+    /**
+     * Enables the priority aging. Each priority level below {@link Request.Priority#IMMEDIATE}
+     * is worth {@code millis} of waiting time, so low priority requests are eventually
+     * served even when higher priority requests keep coming. Zero disables the aging.
+     */
+    public void setAgingInterval(long millis) {
+        agingInterval = millis;
     }
 
     public void add(Request request) {
-        synchronized (cachedRequest) {
-            cachedRequest.add(request);
+        if (isStopping) {
+            sender.failure(request, Request.ERROR_QUEUE_STOPPED);
+            return;
         }
-    }
 
-    public synchronized void remove(Request request) {
-        request.setCanceled(true);
-        synchronized (cachedRequest) {
-            cachedRequest.remove(request);
+        long now = System.currentTimeMillis();
+        request.setSequence(sequenceGenerator.incrementAndGet());
+        long interval = agingInterval;
+        if (interval > 0) {
+            long wait = request.getPriority().ordinal() * interval;
+            request.setAgingDeadline(now + wait);
+        } else {
+            request.setAgingDeadline(0);
         }
-        synchronized (networkRequest) {
-            networkRequest.remove(request);
+        request.setDeadline(request.getTimeout() > 0 ? now + request.getTimeout() : 0);
+        request.setRefreshing(false);
+        tagIndex.track(request);
+        if (inFlight.attach(request)) {
+            DominoLog.debug("Coalesced Request [id: " + request.getRequestKey() + "]");
+            return;
         }
+        try {
+            if (!cachedRequest.add(request)) {
+                sender.failure(request, inFlight.finish(request), Request.ERROR_QUEUE_STOPPED);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            reject(request);
+        }
+    }
+
+    private void reject(Request request) {
+        DominoLog.debug("Rejected Request [id: " + request.getRequestKey() + "]");
+        sender.failure(request, inFlight.finish(request), Request.ERROR_QUEUE_FULL);
+    }
+
+    /**
+     * Bounds the queue in front of the cache stage.
+     */
+    public void setCacheQueueCapacity(int capacity, OverflowPolicy policy) {
+        cachedRequest.setCapacity(capacity, policy);
+    }
+
+    /**
+     * Bounds the queue in front of the network stage.
+     */
+    public void setNetworkQueueCapacity(int capacity, OverflowPolicy policy) {
+        networkRequest.setCapacity(capacity, policy);
+    }
+
+    /**
+     * @return the number of requests given up so far because a queue was full.
+     */
+    public long getRejectedCount() {
+        return cachedRequest.getRejectedCount() + networkRequest.getRejectedCount();
+    }
+
+    /**
+     * Cancels the request. It is left in the queues and skipped by the dispatchers.
+     */
+    public void remove(Request request) {
+        request.setCanceled(true);
+        tagIndex.untrack(request);
+    }
+
+    /**
+     * Cancels every request added with {@link Request#setTag(Object)} set to the tag.
+     *
+     * @return the number of canceled requests.
+     */
+    public int cancelAll(Object tag) {
+        return tagIndex.cancelAll(tag);
     }
 
     public void start() {
@@ -70,26 +266,98 @@ public class RequestQueue {
             return;
 
         isRunning = true;
-        int c = dispatchers.length;
-        for (int i = 0; i < c; i++) {
-            dispatchers[i] = new NetworkDispatcher(networkRequest, cache, network, sender);
-            dispatchers[i].start();
-        }
-        cacheDispatcher = new CacheDispatcher(networkRequest, cachedRequest, cache, sender);
+        isStopping = false;
+        cachedRequest.open();
+        networkRequest.open();
+        dispatcherPool.start();
+        cacheDispatcher = new CacheDispatcher(networkRequest, cachedRequest, cache, sender,
+                inFlight, dispatcherPool);
         cacheDispatcher.start();
+        preconnector.start();
         DominoLog.debug("Request Queue Started!");
     }
 
+    /**
+     * Stops the queue right away. The queued requests fail with
+     * {@link Request#ERROR_QUEUE_STOPPED}.
+     */
     public void stop() {
+        stop(0);
+    }
+
+    /**
+     * Stops taking new requests and lets the queued and in-flight requests, including
+     * their cache writes, finish for up to the drain timeout. Failed requests are not
+     * retried anymore. The dispatchers are then stopped and the requests still queued,
+     * or put back by a dispatcher afterwards, fail with {@link Request#ERROR_QUEUE_STOPPED}.
+     */
+    public DrainResult stop(long drainTimeout) {
         if (!isRunning)
-            return;
+            return new DrainResult(0, 0);
+
+        long delivered = sender.getDeliveredCount();
+        long stopped = sender.getStoppedCount();
+        isStopping = true;
+        networkRequest.shutdown();
+        preconnector.stop();
+        long deadline = System.currentTimeMillis() + drainTimeout;
+        try {
+            while (!isIdle() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(DRAIN_POLL_INTERVAL);
+            }
+
+            isRunning = false;
+            dispatcherPool.stop();
+            cacheDispatcher.cancel();
+            // An interrupted dispatcher may still queue a retry, wait for it if we have time.
+            dispatcherPool.awaitTermination(deadline - System.currentTimeMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            isRunning = false;
+            dispatcherPool.stop();
+            cacheDispatcher.cancel();
+        }
+
+        // From now on the queues refuse what a late dispatcher puts back, it fails instead.
+        List<Request> remaining = new ArrayList<>();
+        cachedRequest.close(remaining);
+        networkRequest.close(remaining);
+        for (Request request : remaining) {
+            if (!request.isCanceled()) {
+                sender.failure(request, inFlight.finish(request), Request.ERROR_QUEUE_STOPPED);
+            }
+        }
+
+        int dropped = (int) (sender.getStoppedCount() - stopped);
+        int drained = (int) (sender.getDeliveredCount() - delivered) - dropped;
+        DominoLog.debug("Request Queue Stopped! [drained: " + drained + ", dropped: "
+                + dropped + "]");
+        return new DrainResult(drained, dropped);
+    }
+
+    private boolean isIdle() {
+        return cachedRequest.isEmpty() && !cacheDispatcher.isBusy()
+                && networkRequest.size() == 0 && networkRequest.runningCount() == 0;
+    }
+
+    /**
+     * The outcome of {@link #stop(long)}.
+     */
+    public static class DrainResult {
+        /**
+         * The number of requests answered while the queue drained, i.e. handed to their
+         * delivery executor. A request still running when stop returns is not counted.
+         */
+        public final int drained;
+        /**
+         * The number of requests that failed with {@link Request#ERROR_QUEUE_STOPPED}
+         * while the queue stopped.
+         */
+        public final int dropped;
 
-        isRunning = false;
-        int c = dispatchers.length;
-        for (int i = 0; i < c; i++) {
-            dispatchers[i].close();
+        public DrainResult(int drained, int dropped) {
+            this.drained = drained;
+            this.dropped = dropped;
         }
-        cacheDispatcher.cancel();
-        DominoLog.debug("Request Queue Stopped!");
     }
 }
@@ -17,26 +17,135 @@
 package com.elmargomez.dominohttp;
 
 import android.os.Handler;
-import android.os.Looper;
 
 import com.elmargomez.dominohttp.request.Request;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
 public class ResponseSender {
-    private Handler handler = null;
+    /**
+     * One frame at 60 frames per second.
+     */
+    public static final long FRAME_INTERVAL = 16;
+
+    private final Executor executor;
+    private final AtomicLong deliveredCount = new AtomicLong();
+    private final AtomicLong stoppedCount = new AtomicLong();
+    private TagIndex tagIndex;
+    private final Object batchLock = new Object();
+    private List<Delivery> pending = new ArrayList<>();
+    private volatile long batchInterval;
+    private volatile BatchListener batchListener;
+    private boolean isFlushScheduled;
+    private final Runnable flush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /**
+     * @param executor the default executor of the deliveries.
+     * @see DeliveryExecutors
+     */
+    public ResponseSender(Executor executor) {
+        this.executor = executor;
+    }
 
     public ResponseSender(Handler handler) {
-        this.handler = handler;
+        this(DeliveryExecutors.handler(handler));
     }
 
     public ResponseSender() {
-        this(new Handler(Looper.getMainLooper()));
+        this(DeliveryExecutors.mainThread());
+    }
+
+    /**
+     * Collects the responses and failures and delivers them together once per interval,
+     * e.g. {@link #FRAME_INTERVAL}, instead of posting one message each. The per-request
+     * listeners are still called, one after the other, followed by the batch listener.
+     * Zero delivers each one right away again.
+     * <p>
+     * The interval needs a Handler based executor. Other executors get a batch whenever
+     * they run, made of what completed until then. The requests with their own delivery
+     * executor are never batched.
+     */
+    public void setBatchInterval(long millis) {
+        batchInterval = millis;
+    }
+
+    /**
+     * Sets the listener called after each batch, e.g. to update the UI once for all of it.
+     * It is only called when batching is on.
+     */
+    public void setBatchListener(BatchListener batchListener) {
+        this.batchListener = batchListener;
+    }
+
+    /**
+     * Sets the index the delivered requests are removed from.
+     */
+    void setTagIndex(TagIndex tagIndex) {
+        this.tagIndex = tagIndex;
     }
 
-    public void success(final Request request, byte[] response) {
-        final Object p = request.generateResponse(response);
-        handler.post(new Runnable() {
+    public void success(Request request, byte[] response) {
+        if (request.isCanceled()) {
+            untrack(request);
+            return;
+        }
+        if (!request.isStreaming()) {
+            deliver(request, request.generateResponse(response));
+            return;
+        }
+
+        // A cached or revalidated response, parsed on the dispatcher thread like one
+        // received from the network, and failing the same way.
+        Object result;
+        try {
+            result = request.parseResponse(new ByteArrayInputStream(response));
+        } catch (IOException | RuntimeException e) {
+            DominoLog.error("Unable to parse the cached response [id: "
+                    + request.getRequestKey() + ", " + e + "]");
+            failure(request, new ParseException(e).getMessage());
+            return;
+        }
+        deliver(request, result);
+    }
+
+    /**
+     * Delivers a download that was written to the file.
+     */
+    public void success(Request request, File file) {
+        deliver(request, request.generateResponse(file));
+    }
+
+    /**
+     * Delivers the result a streaming request already parsed.
+     */
+    public void successParsed(Request request, Object result) {
+        deliver(request, result);
+    }
+
+    private void deliver(final Request request, final Object p) {
+        untrack(request);
+        if (request.isCanceled()) {
+            return;
+        }
+        deliveredCount.incrementAndGet();
+        post(request, new Runnable() {
             @Override
             public void run() {
+                // Usually canceled on the main thread, after the response was posted.
+                if (request.isCanceled()) {
+                    return;
+                }
                 Request.SuccessListener successListener = request.getSuccessListener();
                 if (successListener != null) {
                     successListener.response(request, p);
@@ -45,10 +154,61 @@ public class ResponseSender {
         });
     }
 
+    /**
+     * Delivers the same response to every request that is still alive. A canceled request
+     * never gets a callback, even if it is canceled after its response was posted.
+     */
+    public void success(List<Request> requests, byte[] response) {
+        for (Request request : requests) {
+            if (!request.isCanceled()) {
+                success(request, response);
+            }
+        }
+    }
+
+    /**
+     * Fails the request and the duplicates that were waiting for it. A refreshing request
+     * was already answered from its cache entry, which still answers the duplicates.
+     */
+    public void failure(Request request, List<Request> followers, String error) {
+        if (!request.isRefreshing()) {
+            failure(request, error);
+            failure(followers, error);
+            return;
+        }
+
+        DominoLog.debug("Refresh failed [id: " + request.getRequestKey() + ", " + error + "]");
+        Cache.Data entry = request.getCacheEntry();
+        if (entry != null) {
+            success(followers, entry.data);
+        } else {
+            failure(followers, error);
+        }
+    }
+
+    public void failure(List<Request> requests, String error) {
+        for (Request request : requests) {
+            if (!request.isCanceled()) {
+                failure(request, error);
+            }
+        }
+    }
+
     public void failure(final Request request, final String error) {
-        handler.post(new Runnable() {
+        untrack(request);
+        if (request.isCanceled()) {
+            return;
+        }
+        deliveredCount.incrementAndGet();
+        if (Request.ERROR_QUEUE_STOPPED.equals(error)) {
+            stoppedCount.incrementAndGet();
+        }
+        post(request, new Runnable() {
             @Override
             public void run() {
+                if (request.isCanceled()) {
+                    return;
+                }
                 Request.FailedListeners errorListener = request.getErrorListener();
                 if (errorListener != null) {
                     errorListener.error(request, error);
@@ -56,4 +216,97 @@ public class ResponseSender {
             }
         });
     }
+
+    /**
+     * @return the number of responses and failures handed to the executors so far.
+     */
+    long getDeliveredCount() {
+        return deliveredCount.get();
+    }
+
+    /**
+     * @return the number of {@link Request#ERROR_QUEUE_STOPPED} failures among them.
+     */
+    long getStoppedCount() {
+        return stoppedCount.get();
+    }
+
+    private void untrack(Request request) {
+        if (tagIndex != null) {
+            tagIndex.untrack(request);
+        }
+    }
+
+    private void post(Request request, Runnable callback) {
+        Executor own = request.getDeliveryExecutor();
+        if (own != null) {
+            own.execute(callback);
+            return;
+        }
+
+        long interval = batchInterval;
+        if (interval <= 0) {
+            executor.execute(callback);
+            return;
+        }
+
+        boolean schedule = false;
+        synchronized (batchLock) {
+            pending.add(new Delivery(request, callback));
+            if (!isFlushScheduled) {
+                isFlushScheduled = true;
+                schedule = true;
+            }
+        }
+
+        if (schedule) {
+            if (executor instanceof DeliveryExecutors.HandlerExecutor) {
+                ((DeliveryExecutors.HandlerExecutor) executor).executeDelayed(flush, interval);
+            } else {
+                executor.execute(flush);
+            }
+        }
+    }
+
+    private void flush() {
+        List<Delivery> batch;
+        synchronized (batchLock) {
+            batch = pending;
+            pending = new ArrayList<>();
+            isFlushScheduled = false;
+        }
+
+        List<Request> requests = new ArrayList<>(batch.size());
+        for (Delivery delivery : batch) {
+            if (delivery.request.isCanceled()) {
+                continue;
+            }
+            delivery.callback.run();
+            requests.add(delivery.request);
+        }
+
+        BatchListener listener = batchListener;
+        if (listener != null && !requests.isEmpty()) {
+            listener.onBatch(requests);
+        }
+    }
+
+    /**
+     * Called on the delivery thread after the listeners of a batch of requests ran.
+     */
+    public interface BatchListener {
+
+        void onBatch(List<Request> requests);
+
+    }
+
+    private static class Delivery {
+        final Request request;
+        final Runnable callback;
+
+        Delivery(Request request, Runnable callback) {
+            this.request = request;
+            this.callback = callback;
+        }
+    }
 }
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2016 Elmar Rhex Gomez.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.elmargomez.dominohttp;
+
+import com.elmargomez.dominohttp.request.Request;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * The response body as handed to a streaming request. Every byte read is copied to the
+ * cache, if any, and counted for the request's progress listener and to check the
+ * length once the body ends.
+ */
+class ResponseStream extends FilterInputStream {
+    private static final long UNKNOWN_PROGRESS_STEP = 64 * 1024;
+
+    private final OutputStream tee;
+    private final Request request;
+    private final Request.ProgressListener listener;
+    private final long length;
+    private final long step;
+    private final byte[] one = new byte[1];
+    private long received;
+    private long reported;
+    private IOException error;
+
+    /**
+     * @param tee    receives a copy of the body, may be null.
+     * @param length the expected number of bytes, or -1 if unknown.
+     */
+    ResponseStream(InputStream in, OutputStream tee, Request request, long length) {
+        super(in);
+        this.tee = tee;
+        this.request = request;
+        this.listener = request.getProgressListener();
+        this.length = length;
+        this.step = length > 0 ? Math.max(1, length / 100) : UNKNOWN_PROGRESS_STEP;
+    }
+
+    @Override
+    public int read() throws IOException {
+        return read(one, 0, 1) == -1 ? -1 : one[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int count) throws IOException {
+        int read;
+        try {
+            read = in.read(buffer, offset, count);
+            if (read == -1) {
+                if (length >= 0 && received != length) {
+                    throw new IOException("Expected " + length + " bytes, read " + received
+                            + " bytes");
+                }
+                return -1;
+            }
+            if (tee != null) {
+                tee.write(buffer, offset, read);
+            }
+        } catch (IOException e) {
+            error = e;
+            throw e;
+        }
+
+        received += read;
+        if (listener != null && received - reported >= step) {
+            reported = received;
+            listener.progress(request, received, length);
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        // Skipped bytes still have to reach the cache.
+        byte[] buffer = new byte[(int) Math.min(n, 4096)];
+        int read = read(buffer, 0, buffer.length);
+        return read == -1 ? 0 : read;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void close() {
+        // The connection is closed by Network once the body was read to the end.
+    }
+
+    /**
+     * Reads what the request left of the body, so the cache gets all of it.
+     */
+    void finish(byte[] buffer) throws IOException {
+        while (read(buffer, 0, buffer.length) != -1) {
+        }
+        if (listener != null && received != reported) {
+            listener.progress(request, received, length);
+        }
+    }
+
+    /**
+     * @return the error the connection or the cache failed with, or null if the request
+     * only failed to parse what it got.
+     */
+    IOException getError() {
+        return error;
+    }
+}
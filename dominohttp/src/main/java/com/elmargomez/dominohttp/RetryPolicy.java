@@ -0,0 +1,123 @@
+/*
+ * Copyright 2016 Elmar Rhex Gomez.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.elmargomez.dominohttp;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Decides whether a failed request is tried again and how long it waits before that.
+ * The delay grows exponentially from the base delay up to the max delay, and a random
+ * part of it, the jitter, is taken off so failing clients do not retry in lockstep.
+ */
+public class RetryPolicy {
+    public static final long DEFAULT_BASE_DELAY = 1000;
+    public static final float DEFAULT_MULTIPLIER = 2f;
+    public static final long DEFAULT_MAX_DELAY = 30 * 1000;
+    public static final float DEFAULT_JITTER = 0.5f;
+
+    private static final Random random = new Random();
+
+    private long baseDelay = DEFAULT_BASE_DELAY;
+    private float multiplier = DEFAULT_MULTIPLIER;
+    private long maxDelay = DEFAULT_MAX_DELAY;
+    private float jitter = DEFAULT_JITTER;
+    private final Set<Integer> statusCodes = new HashSet<>(Arrays.asList(408, 429, 500, 502,
+            503, 504));
+    private final List<Class<? extends IOException>> exceptions = new ArrayList<>();
+
+    public RetryPolicy() {
+        exceptions.add(IOException.class);
+    }
+
+    public RetryPolicy setBaseDelay(long millis) {
+        baseDelay = millis;
+        return this;
+    }
+
+    public RetryPolicy setMultiplier(float multiplier) {
+        this.multiplier = multiplier;
+        return this;
+    }
+
+    public RetryPolicy setMaxDelay(long millis) {
+        maxDelay = millis;
+        return this;
+    }
+
+    /**
+     * @param jitter the fraction of the delay, from 0 to 1, that may be randomly taken off.
+     */
+    public RetryPolicy setJitter(float jitter) {
+        this.jitter = Math.max(0f, Math.min(1f, jitter));
+        return this;
+    }
+
+    /**
+     * Replaces the HTTP status codes that can be retried.
+     */
+    public RetryPolicy setRetryableStatusCodes(int... codes) {
+        statusCodes.clear();
+        for (int code : codes) {
+            statusCodes.add(code);
+        }
+        return this;
+    }
+
+    /**
+     * Replaces the transport exceptions that can be retried, {@link IOException} by default.
+     */
+    @SafeVarargs
+    public final RetryPolicy setRetryableExceptions(Class<? extends IOException>... types) {
+        exceptions.clear();
+        exceptions.addAll(Arrays.asList(types));
+        return this;
+    }
+
+    public boolean isRetryable(IOException e) {
+        if (e instanceof ParseException) {
+            return false;
+        }
+        if (e instanceof HttpException) {
+            return statusCodes.contains(((HttpException) e).getStatusCode());
+        }
+
+        for (Class<? extends IOException> type : exceptions) {
+            if (type.isInstance(e)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param attempt the number of retries already made.
+     * @return the time in milliseconds to wait before the next retry.
+     */
+    public long getDelay(int attempt) {
+        double delay = baseDelay * Math.pow(multiplier, attempt);
+        delay = Math.min(delay, maxDelay);
+        delay -= delay * jitter * random.nextDouble();
+        return (long) delay;
+    }
+}
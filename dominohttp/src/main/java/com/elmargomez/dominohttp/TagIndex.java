@@ -0,0 +1,82 @@
+/*
+ * Copyright 2016 Elmar Rhex Gomez.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.elmargomez.dominohttp;
+
+import com.elmargomez.dominohttp.request.Request;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An index from {@link Request#getTag()} to the live requests carrying it, so a whole
+ * group can be canceled without scanning the queues. Canceled requests stay queued and
+ * are dropped by the dispatchers when they reach them.
+ */
+public class TagIndex {
+
+    private final Map<Object, Set<Request>> requests = new HashMap<>();
+
+    public synchronized void track(Request request) {
+        Object tag = request.getTag();
+        if (tag == null) {
+            return;
+        }
+
+        Set<Request> group = requests.get(tag);
+        if (group == null) {
+            group = new HashSet<>();
+            requests.put(tag, group);
+        }
+        group.add(request);
+    }
+
+    public synchronized void untrack(Request request) {
+        Object tag = request.getTag();
+        if (tag == null) {
+            return;
+        }
+
+        Set<Request> group = requests.get(tag);
+        if (group != null && group.remove(request) && group.isEmpty()) {
+            requests.remove(tag);
+        }
+    }
+
+    /**
+     * Cancels every live request carrying the tag.
+     *
+     * @return the number of canceled requests.
+     */
+    public int cancelAll(Object tag) {
+        Set<Request> group;
+        synchronized (this) {
+            group = requests.remove(tag);
+        }
+
+        if (group == null) {
+            return 0;
+        }
+
+        for (Request request : group) {
+            request.setCanceled(true);
+        }
+        return group.size();
+    }
+}
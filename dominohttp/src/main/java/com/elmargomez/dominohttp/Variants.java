@@ -0,0 +1,200 @@
+/*
+ * Copyright 2016 Elmar Rhex Gomez.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.elmargomez.dominohttp;
+
+import com.elmargomez.dominohttp.request.Request;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Stores the responses of a URL as variants selected by the request headers named in
+ * their Vary header. The entry under {@link Request#getCacheKey()} then only records
+ * those names, and each variant is stored under a key made of the normalized values of
+ * the named request headers.
+ * <p>
+ * Authorization always selects a variant, so the responses of different accounts are
+ * never mixed up even if the server forgets to say so. Accept-Encoding never does, the
+ * bodies are stored decoded.
+ */
+public class Variants {
+    private static final String VARIANTS_HEADER = "X-Domino-Variants";
+    private static final String AUTHORIZATION = "authorization";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private Variants() {
+    }
+
+    /**
+     * @return the cached response matching the request's headers, or null. The body of a
+     * download is not read, it is copied with {@link Network#copyFromCache(Cache, Request)}.
+     */
+    public static Cache.Data lookup(Cache cache, Request request) {
+        String key = lookupKey(cache, request);
+        if (key == null) {
+            return null;
+        }
+        return request.isDownload() ? cache.getMetadata(key) : cache.get(key);
+    }
+
+    /**
+     * @return the key the response matching the request's headers is stored under, or
+     * null if nothing is cached for the URL. Only the headers of the entries are read.
+     */
+    public static String lookupKey(Cache cache, Request request) {
+        Cache.Data index = cache.getMetadata(request.getCacheKey());
+        if (index == null) {
+            return null;
+        }
+
+        String names = index.getHeader(VARIANTS_HEADER);
+        return names != null ? variantKey(request, names) : request.getCacheKey();
+    }
+
+    /**
+     * @return the key to store the response under.
+     */
+    public static String key(Request request, Map<String, String> responseHeaders) {
+        String names = getNames(request, responseHeaders);
+        return names.isEmpty() ? request.getCacheKey() : variantKey(request, names);
+    }
+
+    /**
+     * Like {@link #key(Request, Map)}, and records the names of the varying headers for
+     * the lookups if the response is a variant.
+     */
+    public static String prepareKey(Cache cache, Request request,
+                                    Map<String, String> responseHeaders) {
+        String names = getNames(request, responseHeaders);
+        if (names.isEmpty()) {
+            return request.getCacheKey();
+        }
+
+        Cache.Data index = cache.getMetadata(request.getCacheKey());
+        if (index == null || !names.equals(index.getHeader(VARIANTS_HEADER))) {
+            index = new Cache.Data();
+            index.header = Collections.singletonMap(VARIANTS_HEADER, names);
+            index.data = new byte[0];
+            index.ttl = Long.MAX_VALUE;
+            index.softTTL = Long.MAX_VALUE;
+            cache.put(request.getCacheKey(), index);
+        }
+        return variantKey(request, names);
+    }
+
+    /**
+     * @return the sorted, lower case and comma separated names of the request headers
+     * that select the variant, or an empty String if the response does not vary.
+     */
+    private static String getNames(Request request, Map<String, String> responseHeaders) {
+        TreeSet<String> names = new TreeSet<>();
+        for (Map.Entry<String, String> entry : responseHeaders.entrySet()) {
+            if (entry.getKey() == null || !entry.getKey().equalsIgnoreCase("Vary")
+                    || entry.getValue() == null) {
+                continue;
+            }
+            for (String name : entry.getValue().split(",")) {
+                name = name.trim().toLowerCase();
+                if (!name.isEmpty() && !name.equals("accept-encoding")) {
+                    names.add(name);
+                }
+            }
+        }
+        if (getRequestHeader(request, AUTHORIZATION) != null) {
+            names.add(AUTHORIZATION);
+        }
+
+        StringBuilder builder = new StringBuilder();
+        for (String name : names) {
+            if (builder.length() > 0) {
+                builder.append(',');
+            }
+            builder.append(name);
+        }
+        return builder.toString();
+    }
+
+    private static String variantKey(Request request, String names) {
+        StringBuilder builder = new StringBuilder();
+        for (String name : names.split(",")) {
+            String value = getRequestHeader(request, name);
+            builder.append(name);
+            if (value == null) {
+                builder.append('\n');
+                continue;
+            }
+            builder.append('=');
+            normalize(value, builder);
+            builder.append('\n');
+        }
+        // The key is written to the disk, do not keep credentials in it.
+        return request.getCacheKey() + "|vary|" + sha256(builder.toString());
+    }
+
+    private static String getRequestHeader(Request request, String name) {
+        if (name.equals("content-type")) {
+            return request.getContentType();
+        }
+        Map<String, String> headers = request.getHeaders();
+        for (Map.Entry<String, String> entry : headers.entrySet()) {
+            if (name.equalsIgnoreCase(entry.getKey())) {
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Appends the value trimmed, with the white space runs collapsed and the white space
+     * around commas dropped.
+     */
+    private static void normalize(String value, StringBuilder out) {
+        boolean space = false;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == ' ' || c == '\t') {
+                space = true;
+                continue;
+            }
+            int last = out.length() - 1;
+            if (space && c != ',' && out.charAt(last) != ',' && out.charAt(last) != '=') {
+                out.append(' ');
+            }
+            space = false;
+            out.append(c);
+        }
+    }
+
+    private static String sha256(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(value.getBytes("UTF-8"));
+            char[] hex = new char[digest.length * 2];
+            for (int i = 0; i < digest.length; i++) {
+                hex[i * 2] = HEX[(digest[i] >> 4) & 0xf];
+                hex[i * 2 + 1] = HEX[digest[i] & 0xf];
+            }
+            return new String(hex);
+        } catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+            // Both are required on every platform.
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -30,6 +30,7 @@ import java.io.IOException;
 public class DownloadImage extends Request<File, DownloadImage.ImageInfo> {
 
     private String filename;
+    private File file;
 
     public DownloadImage(SuccessListener<ImageInfo> successListener,
                          FailedListeners failedListenersListener) {
@@ -47,28 +48,25 @@ public class DownloadImage extends Request<File, DownloadImage.ImageInfo> {
     }
 
     @Override
-    public ImageInfo generateResponse(byte[] b) {
-        ImageInfo imageInfo = new ImageInfo();
-        File file = null;
-        try {
+    public boolean isDownload() {
+        return true;
+    }
+
+    @Override
+    public synchronized File getDownloadFile() throws IOException {
+        if (file == null) {
             file = File.createTempFile(filename, ".JPG", getBody());
-        } catch (IOException e) {
-            e.printStackTrace();
         }
+        return file;
+    }
 
+    @Override
+    public ImageInfo generateResponse(byte[] b) {
         FileOutputStream stream = null;
         try {
-            stream = new FileOutputStream(file);
+            stream = new FileOutputStream(getDownloadFile());
             stream.write(b, 0, b.length);
             stream.flush();
-
-            BitmapFactory.Options option = new BitmapFactory.Options();
-            option.inJustDecodeBounds = true; // meaning decode only the size and no creation
-            BitmapFactory.decodeFile(file.getAbsolutePath(), option);
-            imageInfo.width = option.outWidth;
-            imageInfo.height = option.outHeight;
-            imageInfo.path = Uri.fromFile(file).toString();
-            imageInfo.filename = filename;
         } catch (FileNotFoundException e) {
             e.printStackTrace();
         } catch (IOException e) {
@@ -82,12 +80,20 @@ public class DownloadImage extends Request<File, DownloadImage.ImageInfo> {
                 e.printStackTrace();
             }
         }
-        return imageInfo;
+        return file != null ? generateResponse(file) : new ImageInfo();
     }
 
     @Override
-    public int compareTo(Object another) {
-        return 0;
+    public ImageInfo generateResponse(File file) {
+        ImageInfo imageInfo = new ImageInfo();
+        BitmapFactory.Options option = new BitmapFactory.Options();
+        option.inJustDecodeBounds = true; // meaning decode only the size and no creation
+        BitmapFactory.decodeFile(file.getAbsolutePath(), option);
+        imageInfo.width = option.outWidth;
+        imageInfo.height = option.outHeight;
+        imageInfo.path = Uri.fromFile(file).toString();
+        imageInfo.filename = filename;
+        return imageInfo;
     }
 
     public class ImageInfo {
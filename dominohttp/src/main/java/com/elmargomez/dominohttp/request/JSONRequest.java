@@ -35,9 +35,4 @@ public class JSONRequest extends Request<String, String> {
     public String generateResponse(byte[] b) {
         return new String(b);
     }
-
-    @Override
-    public int compareTo(Object another) {
-        return 0;
-    }
 }
@@ -19,11 +19,20 @@ package com.elmargomez.dominohttp.request;
 import android.support.annotation.NonNull;
 import android.support.annotation.StringDef;
 
+import com.elmargomez.dominohttp.Cache;
+import com.elmargomez.dominohttp.RetryPolicy;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
+import java.net.MalformedURLException;
+import java.net.URL;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Executor;
 
 /**
  * The http request.
@@ -31,7 +40,7 @@ import java.util.Map;
  * @param <I> is the specific body Data.
  * @param <R> is the success listener Object.
  */
-public abstract class Request<I, R> implements Comparable {
+public abstract class Request<I, R> implements Comparable<Request> {
     public static final String GET = "GET";
     public static final String PUT = "PUT";
     public static final String POST = "POST";
@@ -42,6 +51,11 @@ public abstract class Request<I, R> implements Comparable {
 
     }
 
+    public static final String ERROR_TIMEOUT = "Request deadline exceeded";
+    public static final String ERROR_QUEUE_STOPPED = "Request queue stopped";
+    public static final String ERROR_QUEUE_FULL = "Request queue full";
+    public static final String ERROR_CIRCUIT_OPEN = "Host circuit open";
+
     public static final String APPLICATION_JSON = "application/json";
     public static final String TEXT_PLAIN = "text/plain";
     public static final String IMAGE_JPEG = "image/jpeg";
@@ -52,12 +66,25 @@ public abstract class Request<I, R> implements Comparable {
 
     }
 
+    /**
+     * The scheduling priority of a Request, from the most urgent to the least.
+     */
+    public enum Priority {
+        IMMEDIATE,
+        HIGH,
+        NORMAL,
+        LOW,
+        PREFETCH
+    }
+
     public final ArrayList<String> tagHolder = new ArrayList<>();
     private SuccessListener<R> successListener;
     private FailedListeners failedListenersListener;
 
     private String requestKey;
+    private String cacheKey;
     private String url;
+    private String host;
     private String method;
     private String contentType;
     private final HashMap<String, String> header = new HashMap<>();
@@ -66,9 +93,22 @@ public abstract class Request<I, R> implements Comparable {
 // todo change to private
     public String requestName;
     private int retryCount;
+    private int retryAttempt;
+    private RetryPolicy retryPolicy = new RetryPolicy();
     private boolean shouldCached = true;
-    private boolean isCanceled;
+    private volatile boolean isCanceled;
     private Object optionalTag;
+    private Priority priority = Priority.NORMAL;
+    private long sequence;
+    private long agingDeadline;
+    private long timeout;
+    private long deadline;
+    private boolean isIdempotent;
+    private ProgressListener progressListener;
+    private Cache.Data cacheEntry;
+    private boolean isRefreshing;
+    private String downloadValidator;
+    private Executor deliveryExecutor;
 
     public Request(String requestName, SuccessListener<R> successListener,
                    FailedListeners failedListenersListener) {
@@ -79,12 +119,27 @@ public abstract class Request<I, R> implements Comparable {
 
     public void setURL(@NonNull String url) {
         this.url = url;
+        this.host = null;
     }
 
     public String getURL() {
         return url;
     }
 
+    /**
+     * @return the host part of the URL, or an empty String if the URL can not be parsed.
+     */
+    public String getHost() {
+        if (host == null) {
+            try {
+                host = new URL(url).getHost();
+            } catch (MalformedURLException e) {
+                host = "";
+            }
+        }
+        return host;
+    }
+
     public void setMethod(@NonNull @Method String method) {
         this.method = method;
     }
@@ -124,6 +179,27 @@ public abstract class Request<I, R> implements Comparable {
         return requestKey;
     }
 
+    /**
+     * @return the key of the cached responses. Unlike the request key it leaves the
+     * headers out, the Vary header of the response decides which of them matter.
+     */
+    public String getCacheKey() {
+        if (cacheKey == null) {
+            StringBuilder builder = new StringBuilder();
+            builder.append(requestName);
+            builder.append("|");
+            builder.append(url);
+            builder.append("|");
+            if (data != null) {
+                builder.append(data.length);
+            }
+
+            cacheKey = builder.toString();
+        }
+
+        return cacheKey;
+    }
+
     public void addHeaders(Map<String, String> s) {
         header.putAll(s);
     }
@@ -162,6 +238,22 @@ public abstract class Request<I, R> implements Comparable {
 
     public void decRetryCount() {
         retryCount--;
+        retryAttempt++;
+    }
+
+    /**
+     * @return the number of retries already made.
+     */
+    public int getRetryAttempt() {
+        return retryAttempt;
+    }
+
+    public void setRetryPolicy(@NonNull RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
     }
 
     protected I getBody() {
@@ -174,8 +266,52 @@ public abstract class Request<I, R> implements Comparable {
 
     public abstract byte[] getByteData();
 
+    /**
+     * @return a body streamed to the connection instead of {@link #getByteData()}, or null
+     * to send the byte data.
+     */
+    public RequestBody getStreamingBody() {
+        return null;
+    }
+
     public abstract R generateResponse(byte[] b);
 
+    /**
+     * @return true if the response body should be written straight to
+     * {@link #getDownloadFile()} instead of being held in memory.
+     */
+    public boolean isDownload() {
+        return false;
+    }
+
+    /**
+     * @return the file a download is written to.
+     */
+    public File getDownloadFile() throws IOException {
+        return null;
+    }
+
+    /**
+     * @return true if the response is parsed by {@link #parseResponse(InputStream)} while
+     * it is received instead of being buffered for {@link #generateResponse(byte[])}.
+     *
+     * @see StreamingRequest
+     */
+    public boolean isStreaming() {
+        return false;
+    }
+
+    public R parseResponse(InputStream stream) throws IOException {
+        throw new UnsupportedOperationException("Not a streaming request");
+    }
+
+    /**
+     * Generates the response of a download from its file.
+     */
+    public R generateResponse(File file) {
+        throw new UnsupportedOperationException("Not a download request");
+    }
+
     public void setTag(Object tag) {
         optionalTag = tag;
     }
@@ -184,6 +320,152 @@ public abstract class Request<I, R> implements Comparable {
         return optionalTag;
     }
 
+    public void setPriority(@NonNull Priority priority) {
+        this.priority = priority;
+    }
+
+    public Priority getPriority() {
+        return priority;
+    }
+
+    /**
+     * Sets the submission order of this request, used as the tiebreaker between
+     * requests of the same priority. This is assigned by the RequestQueue.
+     */
+    public void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Sets the time at which this request outranks every request submitted after
+     * it, regardless of their priority. Zero disables the aging.
+     */
+    public void setAgingDeadline(long agingDeadline) {
+        this.agingDeadline = agingDeadline;
+    }
+
+    public long getAgingDeadline() {
+        return agingDeadline;
+    }
+
+    /**
+     * Sets the time in milliseconds the request may take from the moment it is added to
+     * the queue until its response arrives. Zero means no deadline.
+     */
+    public void setTimeout(long millis) {
+        timeout = millis;
+    }
+
+    public long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Sets the absolute time, in {@link System#currentTimeMillis()}, after which the
+     * request is dropped. This is computed by the RequestQueue from the timeout.
+     */
+    public void setDeadline(long deadline) {
+        this.deadline = deadline;
+    }
+
+    public long getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * Marks the request as safe to send more than once, which allows hedging it.
+     */
+    public void setIdempotent(boolean v) {
+        isIdempotent = v;
+    }
+
+    public boolean isIdempotent() {
+        return isIdempotent;
+    }
+
+    /**
+     * Sets the stale cache entry the request revalidates, its validators are sent so
+     * the server can answer with 304 Not Modified.
+     */
+    public void setCacheEntry(Cache.Data cacheEntry) {
+        this.cacheEntry = cacheEntry;
+    }
+
+    public Cache.Data getCacheEntry() {
+        return cacheEntry;
+    }
+
+    /**
+     * Marks the request as refreshing the stale cache entry it was already answered with.
+     * Its response then only updates the cache and its duplicates, and its failure only
+     * concerns them. This is set by the CacheDispatcher.
+     */
+    public void setRefreshing(boolean refreshing) {
+        isRefreshing = refreshing;
+    }
+
+    public boolean isRefreshing() {
+        return isRefreshing;
+    }
+
+    /**
+     * Sets the ETag or Last-Modified of the download in progress, a retry sends it as
+     * If-Range to resume the partial file instead of starting over.
+     */
+    public void setDownloadValidator(String downloadValidator) {
+        this.downloadValidator = downloadValidator;
+    }
+
+    public String getDownloadValidator() {
+        return downloadValidator;
+    }
+
+    /**
+     * Delivers the response of this request on the executor instead of the queue's, e.g.
+     * {@link com.elmargomez.dominohttp.DeliveryExecutors#direct()} for a background
+     * consumer that does not need the main thread.
+     */
+    public void setDeliveryExecutor(Executor deliveryExecutor) {
+        this.deliveryExecutor = deliveryExecutor;
+    }
+
+    public Executor getDeliveryExecutor() {
+        return deliveryExecutor;
+    }
+
+    public boolean hasExpired() {
+        return deadline > 0 && deadline <= System.currentTimeMillis();
+    }
+
+    @Override
+    public int compareTo(@NonNull Request another) {
+        if (agingDeadline != another.agingDeadline) {
+            return agingDeadline < another.agingDeadline ? -1 : 1;
+        }
+
+        int diff = priority.ordinal() - another.priority.ordinal();
+        if (diff != 0) {
+            return diff;
+        }
+
+        return sequence < another.sequence ? -1 : (sequence == another.sequence ? 0 : 1);
+    }
+
+    /**
+     * Sets the listener told about the bytes sent, called on the network thread.
+     */
+    public void setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    public ProgressListener getProgressListener() {
+        return progressListener;
+    }
+
     public SuccessListener getSuccessListener() {
         return successListener;
     }
@@ -212,4 +494,17 @@ public abstract class Request<I, R> implements Comparable {
 
     }
 
+    /**
+     * The Progress Listener for the Current Request.
+     */
+    public interface ProgressListener {
+
+        /**
+         * @param bytes the number of bytes sent or received so far.
+         * @param total the expected number of bytes, or -1 if unknown.
+         */
+        void progress(Request request, long bytes, long total);
+
+    }
+
 }
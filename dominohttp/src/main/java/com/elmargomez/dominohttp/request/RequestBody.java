@@ -0,0 +1,124 @@
+/*
+ * Copyright 2016 Elmar Rhex Gomez.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.elmargomez.dominohttp.request;
+
+import com.elmargomez.dominohttp.ByteArrayPool;
+import com.elmargomez.dominohttp.LocalException;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A request body written straight from its source to the connection, so it never has
+ * to be held in memory as a whole.
+ */
+public abstract class RequestBody {
+    private static final int BUFFER_SIZE = 8192;
+    private static final long UNKNOWN_PROGRESS_STEP = 64 * 1024;
+
+    /**
+     * @return the body size in bytes, or -1 if unknown, in which case it is sent chunked.
+     */
+    public abstract long getContentLength();
+
+    protected abstract InputStream open() throws IOException;
+
+    /**
+     * Copies the body to the stream, reporting the progress to the request's
+     * {@link Request.ProgressListener} on the calling thread.
+     */
+    public void writeTo(OutputStream out, Request request) throws IOException {
+        Request.ProgressListener listener = request.getProgressListener();
+        long total = getContentLength();
+        long step = total > 0 ? Math.max(1, total / 100) : UNKNOWN_PROGRESS_STEP;
+        ByteArrayPool pool = ByteArrayPool.getPool();
+        byte[] buffer = pool.getBuf(BUFFER_SIZE);
+        InputStream in = null;
+        try {
+            try {
+                in = open();
+            } catch (IOException e) {
+                // E.g. a missing upload file, nothing the host is to blame for.
+                throw new LocalException(e);
+            }
+            long written = 0;
+            long reported = 0;
+            int read;
+            while (-1 != (read = in.read(buffer))) {
+                out.write(buffer, 0, read);
+                written += read;
+                if (listener != null && written - reported >= step) {
+                    reported = written;
+                    listener.progress(request, written, total);
+                }
+            }
+            out.flush();
+            if (listener != null && written != reported) {
+                listener.progress(request, written, total);
+            }
+        } finally {
+            pool.returnBuf(buffer);
+            if (in != null) {
+                in.close();
+            }
+        }
+    }
+
+    public static RequestBody create(final File file) {
+        return new RequestBody() {
+            @Override
+            public long getContentLength() {
+                return file.length();
+            }
+
+            @Override
+            protected InputStream open() throws IOException {
+                return new FileInputStream(file);
+            }
+        };
+    }
+
+    /**
+     * A body read from the stream. The stream can only be sent once, so a retry of the
+     * request fails.
+     *
+     * @param length the number of bytes in the stream, or -1 if unknown.
+     */
+    public static RequestBody create(final InputStream stream, final long length) {
+        return new RequestBody() {
+            private boolean isOpened;
+
+            @Override
+            public long getContentLength() {
+                return length;
+            }
+
+            @Override
+            protected synchronized InputStream open() throws IOException {
+                if (isOpened) {
+                    throw new IOException("The body stream was already sent");
+                }
+                isOpened = true;
+                return stream;
+            }
+        };
+    }
+}
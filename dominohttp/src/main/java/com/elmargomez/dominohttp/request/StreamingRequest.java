@@ -0,0 +1,63 @@
+/*
+ * Copyright 2016 Elmar Rhex Gomez.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.elmargomez.dominohttp.request;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A request that parses its response while it is received, so the body is never held in
+ * memory as a whole. The stream handed to {@link #parseResponse(InputStream)} also feeds
+ * the cache, and a cached response is parsed the same way.
+ *
+ * @param <I> is the specific body Data.
+ * @param <R> is the parsed response.
+ */
+public abstract class StreamingRequest<I, R> extends Request<I, R> {
+
+    public StreamingRequest(String requestName, SuccessListener<R> successListener,
+                            FailedListeners failedListenersListener) {
+        super(requestName, successListener, failedListenersListener);
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return true;
+    }
+
+    /**
+     * Parses the response on the dispatcher thread. The stream does not have to be read
+     * to the end, nor closed.
+     */
+    @Override
+    public abstract R parseResponse(InputStream stream) throws IOException;
+
+    /**
+     * Parses a buffered response. The queue itself calls {@link #parseResponse(InputStream)}
+     * and delivers a parse error as a failure.
+     *
+     * @throws IllegalStateException if the response can not be parsed.
+     */
+    @Override
+    public R generateResponse(byte[] b) {
+        try {
+            return parseResponse(new ByteArrayInputStream(b));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
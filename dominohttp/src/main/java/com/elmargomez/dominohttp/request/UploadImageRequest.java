@@ -16,12 +16,10 @@
 
 package com.elmargomez.dominohttp.request;
 
-import java.io.BufferedInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 
 public class UploadImageRequest extends Request<File, String> {
 
@@ -35,16 +33,14 @@ public class UploadImageRequest extends Request<File, String> {
     public byte[] getByteData() {
         if (data == null) {
             data = new byte[]{}; // placeholder
-            ByteArrayOutputStream bStream = new ByteArrayOutputStream();
-            InputStream s = null;
+            File file = getBody();
+            DataInputStream s = null;
             try {
-                s = new BufferedInputStream(new FileInputStream(getBody()));
-                final byte[] patch = new byte[1024];
-                int bytesRead;
-                while (-1 != (bytesRead = s.read(patch))) {
-                    bStream.write(patch, 0, bytesRead);
-                }
-                data = bStream.toByteArray();
+                // Sized from the file, so the bytes are read once into their final array.
+                byte[] bytes = new byte[(int) file.length()];
+                s = new DataInputStream(new FileInputStream(file));
+                s.readFully(bytes);
+                data = bytes;
             } catch (IOException e) {
                 e.printStackTrace();
             } finally {
@@ -52,7 +48,6 @@ public class UploadImageRequest extends Request<File, String> {
                     if (s != null) {
                         s.close();
                     }
-                    bStream.close();
                 } catch (IOException e) {
                     e.printStackTrace();
                 }
@@ -61,13 +56,17 @@ public class UploadImageRequest extends Request<File, String> {
         return data;
     }
 
+    /**
+     * Streams the file to the connection, {@link #getByteData()} is only kept for callers
+     * that need the bytes.
+     */
     @Override
-    public String generateResponse(byte[] b) {
-        return new String(b);
+    public RequestBody getStreamingBody() {
+        return RequestBody.create(getBody());
     }
 
     @Override
-    public int compareTo(Object another) {
-        return 0;
+    public String generateResponse(byte[] b) {
+        return new String(b);
     }
 }
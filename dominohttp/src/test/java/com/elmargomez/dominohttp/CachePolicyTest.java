@@ -0,0 +1,208 @@
+/*
+ * Copyright 2016 Elmar Rhex Gomez.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.elmargomez.dominohttp;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CachePolicyTest {
+
+    // Sun, 06 Nov 1994 08:49:37 GMT
+    private static final long NOW = 784111777000L;
+    private static final String DATE = "Sun, 06 Nov 1994 08:49:37 GMT";
+
+    @Test
+    public void maxAgeSetsTheFreshness() {
+        CachePolicy policy = compute(NOW, NOW, "Date", DATE, "Cache-Control", "max-age=60");
+
+        assertTrue(policy.isStorable);
+        assertEquals(NOW + 60000, policy.softTTL);
+        assertEquals(NOW + 60000, policy.ttl);
+    }
+
+    @Test
+    public void maxAgeWinsOverExpires() {
+        CachePolicy policy = compute(NOW, NOW, "Date", DATE, "Cache-Control", "max-age=60",
+                "Expires", "Sun, 06 Nov 1994 09:49:37 GMT");
+
+        assertEquals(NOW + 60000, policy.softTTL);
+    }
+
+    @Test
+    public void expiresIsRelativeToTheDate() {
+        CachePolicy policy = compute(NOW, NOW, "Date", DATE,
+                "Expires", "Sun, 06 Nov 1994 08:50:37 GMT");
+
+        assertEquals(NOW + 60000, policy.softTTL);
+    }
+
+    @Test
+    public void invalidExpiresIsAlreadyExpired() {
+        CachePolicy policy = compute(NOW, NOW, "Date", DATE, "Expires", "0");
+
+        assertTrue(policy.isStorable);
+        assertEquals(NOW, policy.softTTL);
+    }
+
+    @Test
+    public void ageIsSubtracted() {
+        CachePolicy policy = compute(NOW, NOW, "Date", DATE, "Cache-Control", "max-age=60",
+                "Age", "20");
+
+        assertEquals(NOW + 40000, policy.softTTL);
+    }
+
+    @Test
+    public void transitTimeIsSubtracted() {
+        CachePolicy policy = compute(NOW - 5000, NOW, "Date", DATE,
+                "Cache-Control", "max-age=60", "Age", "20");
+
+        assertEquals(NOW + 35000, policy.softTTL);
+    }
+
+    @Test
+    public void serverClockBehindIsNotExtraFreshness() {
+        // The server's clock is 30 seconds behind ours.
+        CachePolicy policy = compute(NOW + 30000, NOW + 30000, "Date", DATE,
+                "Cache-Control", "max-age=60");
+
+        assertEquals(NOW + 60000, policy.softTTL);
+    }
+
+    @Test
+    public void serverClockAheadIsNotSubtracted() {
+        // The server's clock is 30 seconds ahead of ours, the response is not older.
+        CachePolicy policy = compute(NOW - 30000, NOW - 30000, "Date", DATE,
+                "Cache-Control", "max-age=60");
+
+        assertEquals(NOW + 30000, policy.softTTL);
+    }
+
+    @Test
+    public void expiresIsNotShiftedByTheSkew() {
+        // The lifetime comes from the server's clock, so the skew does not matter.
+        CachePolicy policy = compute(NOW - 30000, NOW - 30000, "Date", DATE,
+                "Expires", "Sun, 06 Nov 1994 08:50:37 GMT");
+
+        assertEquals(NOW + 30000, policy.softTTL);
+    }
+
+    @Test
+    public void missingDateUsesTheResponseTime() {
+        CachePolicy policy = compute(NOW, NOW, "Cache-Control", "max-age=60");
+
+        assertEquals(NOW + 60000, policy.softTTL);
+    }
+
+    @Test
+    public void noCacheIsStoredButAlwaysRevalidated() {
+        CachePolicy policy = compute(NOW, NOW, "Date", DATE,
+                "Cache-Control", "no-cache, max-age=60, stale-while-revalidate=30");
+
+        assertTrue(policy.isStorable);
+        assertEquals(0, policy.softTTL);
+        assertEquals(0, policy.ttl);
+    }
+
+    @Test
+    public void noCacheWithFieldNamesKeepsTheBody() {
+        CachePolicy policy = compute(NOW, NOW, "Date", DATE,
+                "Cache-Control", "no-cache=\"Set-Cookie\", max-age=60");
+
+        assertEquals(NOW + 60000, policy.softTTL);
+    }
+
+    @Test
+    public void noStoreIsNotStored() {
+        assertFalse(compute(NOW, NOW, "Cache-Control", "max-age=60, no-store").isStorable);
+        assertFalse(compute(NOW, NOW, "cache-control", "NO-STORE").isStorable);
+    }
+
+    @Test
+    public void varyStarIsNotStored() {
+        assertFalse(compute(NOW, NOW, "Cache-Control", "max-age=60", "Vary", "*").isStorable);
+    }
+
+    @Test
+    public void privateIsStored() {
+        CachePolicy policy = compute(NOW, NOW, "Cache-Control", "private, max-age=60");
+
+        assertTrue(policy.isStorable);
+        assertEquals(NOW + 60000, policy.softTTL);
+    }
+
+    @Test
+    public void staleWhileRevalidateExtendsTheTtl() {
+        CachePolicy policy = compute(NOW, NOW, "Date", DATE,
+                "Cache-Control", "max-age=60, stale-while-revalidate=30");
+
+        assertEquals(NOW + 60000, policy.softTTL);
+        assertEquals(NOW + 90000, policy.ttl);
+    }
+
+    @Test
+    public void mustRevalidateIgnoresStaleWhileRevalidate() {
+        CachePolicy policy = compute(NOW, NOW, "Date", DATE,
+                "Cache-Control", "max-age=60, must-revalidate, stale-while-revalidate=30");
+
+        assertEquals(NOW + 60000, policy.ttl);
+    }
+
+    @Test
+    public void staleIfErrorAllowsAStaleEntry() {
+        Cache.Data data = data("max-age=60, stale-if-error=120");
+
+        assertTrue(CachePolicy.canServeStaleOnError(data, NOW + 120000));
+        assertFalse(CachePolicy.canServeStaleOnError(data, NOW + 120001));
+    }
+
+    @Test
+    public void staleIfErrorIsNotAllowedByDefault() {
+        assertFalse(CachePolicy.canServeStaleOnError(data("max-age=60"), NOW + 1));
+    }
+
+    @Test
+    public void staleIfErrorIsOverriddenByNoCacheAndMustRevalidate() {
+        assertFalse(CachePolicy.canServeStaleOnError(
+                data("no-cache, stale-if-error=120"), NOW));
+        assertFalse(CachePolicy.canServeStaleOnError(
+                data("max-age=60, must-revalidate, stale-if-error=120"), NOW));
+    }
+
+    private static CachePolicy compute(long requestTime, long responseTime,
+                                       String... headers) {
+        Map<String, String> map = new HashMap<>();
+        for (int i = 0; i < headers.length; i += 2) {
+            map.put(headers[i], headers[i + 1]);
+        }
+        return CachePolicy.compute(map, requestTime, responseTime);
+    }
+
+    private static Cache.Data data(String cacheControl) {
+        Cache.Data data = new Cache.Data();
+        data.header = new HashMap<>();
+        data.header.put("Cache-Control", cacheControl);
+        data.softTTL = NOW;
+        return data;
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2016 Elmar Rhex Gomez.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.elmargomez.dominohttp;
+
+import com.elmargomez.dominohttp.request.JSONRequest;
+import com.elmargomez.dominohttp.request.Request;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CacheQueueTest {
+
+    private final List<Request> rejected = new ArrayList<>();
+    private final CacheQueue queue = new CacheQueue(new OverflowPolicy.Listener() {
+        @Override
+        public void onRejected(Request request) {
+            rejected.add(request);
+        }
+
+        @Override
+        public void onPurged(Request request) {
+        }
+    });
+    private long sequence;
+
+    @Test
+    public void servesTheMostUrgentPriorityFirst() throws Exception {
+        Request low = add(Request.Priority.LOW);
+        Request high = add(Request.Priority.HIGH);
+
+        assertSame(high, queue.take());
+        assertSame(low, queue.take());
+    }
+
+    @Test
+    public void closingDrainsTheQueue() throws Exception {
+        Request first = add(Request.Priority.NORMAL);
+        Request second = add(Request.Priority.NORMAL);
+
+        List<Request> drained = new ArrayList<>();
+        assertEquals(2, queue.close(drained));
+        assertTrue(drained.contains(first));
+        assertTrue(drained.contains(second));
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void refusesEverythingOnceClosed() throws Exception {
+        queue.close(new ArrayList<Request>());
+
+        assertFalse(queue.add(request(Request.Priority.NORMAL)));
+        assertFalse(queue.requeue(request(Request.Priority.NORMAL)));
+        assertTrue(queue.isEmpty());
+        assertTrue(rejected.isEmpty());
+
+        queue.open();
+        assertTrue(queue.add(request(Request.Priority.NORMAL)));
+        assertEquals(1, queue.size());
+    }
+
+    @Test
+    public void wakesABlockedProducerWhenClosed() throws Exception {
+        queue.setCapacity(1, OverflowPolicy.BLOCK);
+        add(Request.Priority.NORMAL);
+        final AtomicReference<Boolean> taken = new AtomicReference<>();
+        Thread producer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    taken.set(queue.add(request(Request.Priority.NORMAL)));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        producer.start();
+        while (producer.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+
+        List<Request> drained = new ArrayList<>();
+        queue.close(drained);
+        producer.join(5000);
+
+        assertEquals(Boolean.FALSE, taken.get());
+        assertEquals(1, drained.size());
+        assertEquals(0, queue.size());
+    }
+
+    private Request request(Request.Priority priority) {
+        JSONRequest request = new JSONRequest(null, null);
+        request.setURL("http://a.com/" + sequence);
+        request.setPriority(priority);
+        request.setSequence(sequence++);
+        return request;
+    }
+
+    private Request add(Request.Priority priority) throws InterruptedException {
+        Request request = request(priority);
+        queue.add(request);
+        return request;
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2016 Elmar Rhex Gomez.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.elmargomez.dominohttp;
+
+import com.elmargomez.dominohttp.request.JSONRequest;
+import com.elmargomez.dominohttp.request.Request;
+import com.elmargomez.dominohttp.request.RequestBody;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CircuitBreakerTest {
+
+    @Test
+    public void opensAfterTheThresholdAndClosesAfterASuccessfulProbe() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker();
+        breaker.setFailureThreshold(2);
+        breaker.setOpenTimeout(200);
+
+        breaker.onFailure("a.com");
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState("a.com"));
+        assertTrue(breaker.allowRequest("a.com"));
+        breaker.onFailure("a.com");
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState("a.com"));
+        assertFalse(breaker.allowRequest("a.com"));
+        assertTrue(breaker.allowRequest("b.com"));
+
+        Thread.sleep(250);
+        assertTrue(breaker.allowRequest("a.com"));
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState("a.com"));
+        assertFalse(breaker.allowRequest("a.com"));
+
+        breaker.onSuccess("a.com");
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState("a.com"));
+        assertTrue(breaker.allowRequest("a.com"));
+    }
+
+    @Test
+    public void aFailedProbeOpensTheCircuitAgain() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker();
+        breaker.setFailureThreshold(2);
+        breaker.setOpenTimeout(200);
+        breaker.onFailure("a.com");
+        breaker.onFailure("a.com");
+        Thread.sleep(250);
+        assertTrue(breaker.allowRequest("a.com"));
+
+        breaker.onFailure("a.com");
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState("a.com"));
+        assertFalse(breaker.allowRequest("a.com"));
+    }
+
+    @Test
+    public void letsAnotherProbeThroughWhenOneNeverReportsBack() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker();
+        breaker.setFailureThreshold(1);
+        breaker.setOpenTimeout(200);
+        breaker.onFailure("a.com");
+        Thread.sleep(250);
+        assertTrue(breaker.allowRequest("a.com"));
+        assertFalse(breaker.allowRequest("a.com"));
+
+        Thread.sleep(250);
+
+        assertTrue(breaker.allowRequest("a.com"));
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState("a.com"));
+    }
+
+    @Test
+    public void aZeroThresholdDisablesTheBreaker() {
+        CircuitBreaker breaker = new CircuitBreaker();
+        breaker.setFailureThreshold(0);
+        for (int i = 0; i < 10; i++) {
+            breaker.onFailure("a.com");
+        }
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState("a.com"));
+        assertTrue(breaker.allowRequest("a.com"));
+    }
+
+    @Test
+    public void countsTheServerErrorsAndTheTransportFailures() {
+        assertTrue(CircuitBreaker.isHostFailure(new HttpException(503, "Unavailable")));
+        assertTrue(CircuitBreaker.isHostFailure(new SocketTimeoutException()));
+        assertTrue(CircuitBreaker.isHostFailure(new IOException("Connection reset")));
+    }
+
+    @Test
+    public void ignoresTheFailuresTheHostIsNotToBlameFor() {
+        assertFalse(CircuitBreaker.isHostFailure(new HttpException(404, "Not Found")));
+        assertFalse(CircuitBreaker.isHostFailure(new ParseException(new Exception("bad"))));
+        assertFalse(CircuitBreaker.isHostFailure(new LocalException(Request.ERROR_TIMEOUT)));
+    }
+
+    @Test
+    public void aMissingUploadFileIsALocalFailure() throws Exception {
+        RequestBody body = RequestBody.create(new File("/nonexistent/upload.png"));
+        try {
+            body.writeTo(new ByteArrayOutputStream(), new JSONRequest(null, null));
+            fail();
+        } catch (LocalException e) {
+            assertFalse(CircuitBreaker.isHostFailure(e));
+        }
+    }
+
+    @Test
+    public void aLocalFailureGivesTheProbeBack() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker();
+        breaker.setFailureThreshold(1);
+        breaker.setOpenTimeout(200);
+        breaker.onFailure("a.com");
+        Thread.sleep(250);
+
+        assertTrue(breaker.allowRequest("a.com"));
+        assertFalse(breaker.allowRequest("a.com"));
+        breaker.onLocalFailure("a.com");
+
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState("a.com"));
+        assertTrue(breaker.allowRequest("a.com"));
+    }
+}
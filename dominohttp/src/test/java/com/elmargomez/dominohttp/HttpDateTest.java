@@ -0,0 +1,78 @@
+/*
+ * Copyright 2016 Elmar Rhex Gomez.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.elmargomez.dominohttp;
+
+import org.junit.Test;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+
+public class HttpDateTest {
+
+    private static final long NOV_6_1994 = 784111777000L;
+
+    @Test
+    public void parsesImfFixdate() {
+        assertEquals(NOV_6_1994, HttpDate.parse("Sun, 06 Nov 1994 08:49:37 GMT"));
+    }
+
+    @Test
+    public void parsesRfc850() {
+        assertEquals(NOV_6_1994, HttpDate.parse("Sunday, 06-Nov-94 08:49:37 GMT"));
+    }
+
+    @Test
+    public void parsesAsctime() {
+        assertEquals(NOV_6_1994, HttpDate.parse("Sun Nov  6 08:49:37 1994"));
+        assertEquals(NOV_6_1994, HttpDate.parse("Sun Nov 6 08:49:37 1994"));
+    }
+
+    @Test
+    public void parsesLeapDays() {
+        assertEquals(951782400000L, HttpDate.parse("Tue, 29 Feb 2000 00:00:00 GMT"));
+    }
+
+    @Test
+    public void rejectsInvalidDates() {
+        assertEquals(-1, HttpDate.parse(null));
+        assertEquals(-1, HttpDate.parse(""));
+        assertEquals(-1, HttpDate.parse("0"));
+        assertEquals(-1, HttpDate.parse("Sun, 06 Nov 1994 08:49:37 UTC"));
+        assertEquals(-1, HttpDate.parse("Sun, 06 Foo 1994 08:49:37 GMT"));
+        assertEquals(-1, HttpDate.parse("Sun, 06 Nov 1994 24:49:37 GMT"));
+        assertEquals(-1, HttpDate.parse("Sun, 06 Nov 1994 08:49:37 GMT trailing"));
+    }
+
+    @Test
+    public void matchesSimpleDateFormat() throws Exception {
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'",
+                Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        Random random = new Random(42);
+        for (int i = 0; i < 20000; i++) {
+            // Whole seconds between 1970 and 2100.
+            long millis = (random.nextLong() & Long.MAX_VALUE) % 4102444800L * 1000;
+            String value = format.format(new Date(millis));
+            assertEquals(value, format.parse(value).getTime(), HttpDate.parse(value));
+        }
+    }
+}
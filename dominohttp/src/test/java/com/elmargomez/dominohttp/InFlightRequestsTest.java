@@ -0,0 +1,149 @@
+/*
+ * Copyright 2016 Elmar Rhex Gomez.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.elmargomez.dominohttp;
+
+import com.elmargomez.dominohttp.request.DownloadImage;
+import com.elmargomez.dominohttp.request.JSONRequest;
+import com.elmargomez.dominohttp.request.Request;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class InFlightRequestsTest {
+
+    private final InFlightRequests inFlight = new InFlightRequests();
+
+    @Test
+    public void coalescesDuplicateGets() {
+        Request leader = get("http://a.com/1");
+        Request follower = get("http://a.com/1");
+        Request other = get("http://a.com/2");
+
+        assertFalse(inFlight.attach(leader));
+        assertTrue(inFlight.attach(follower));
+        assertFalse(inFlight.attach(other));
+        assertEquals(2, inFlight.size());
+
+        assertEquals(Arrays.asList(follower), inFlight.finish(leader));
+        assertEquals(1, inFlight.size());
+    }
+
+    @Test
+    public void doesNotCoalesceOtherMethods() {
+        Request first = get("http://a.com/1");
+        first.setMethod(Request.POST);
+        Request second = get("http://a.com/1");
+        second.setMethod(Request.POST);
+
+        assertFalse(inFlight.attach(first));
+        assertFalse(inFlight.attach(second));
+        assertEquals(0, inFlight.size());
+    }
+
+    @Test
+    public void doesNotCoalesceDownloads() {
+        DownloadImage first = new DownloadImage(null, null);
+        first.setURL("http://a.com/1.jpg");
+        first.setMethod(Request.GET);
+        DownloadImage second = new DownloadImage(null, null);
+        second.setURL("http://a.com/1.jpg");
+        second.setMethod(Request.GET);
+
+        assertFalse(inFlight.attach(first));
+        assertFalse(inFlight.attach(second));
+    }
+
+    @Test
+    public void doesNotCoalesceAnotherPriority() {
+        Request leader = get("http://a.com/1");
+        leader.setPriority(Request.Priority.PREFETCH);
+        Request immediate = get("http://a.com/1");
+        immediate.setPriority(Request.Priority.IMMEDIATE);
+
+        assertFalse(inFlight.attach(leader));
+        assertFalse(inFlight.attach(immediate));
+        assertTrue(inFlight.finish(leader).isEmpty());
+        // It is not a leader, nobody waits for it.
+        assertTrue(inFlight.finish(immediate).isEmpty());
+    }
+
+    @Test
+    public void doesNotCoalesceAnotherTimeout() {
+        Request leader = get("http://a.com/1");
+        leader.setTimeout(1000);
+        Request patient = get("http://a.com/1");
+
+        assertFalse(inFlight.attach(leader));
+        assertFalse(inFlight.attach(patient));
+    }
+
+    @Test
+    public void detachingKeepsTheLeaderInFlight() {
+        Request leader = get("http://a.com/1");
+        Request first = get("http://a.com/1");
+        Request second = get("http://a.com/1");
+        inFlight.attach(leader);
+        inFlight.attach(first);
+
+        assertEquals(Arrays.asList(first), inFlight.detachFollowers(leader));
+        assertTrue(inFlight.attach(second));
+        assertEquals(Arrays.asList(second), inFlight.finish(leader));
+    }
+
+    @Test
+    public void promotesTheFirstLiveFollower() {
+        Request leader = get("http://a.com/1");
+        Request canceled = get("http://a.com/1");
+        Request live = get("http://a.com/1");
+        Request last = get("http://a.com/1");
+        inFlight.attach(leader);
+        inFlight.attach(canceled);
+        inFlight.attach(live);
+        inFlight.attach(last);
+        canceled.setCanceled(true);
+
+        assertSame(live, inFlight.promote(leader));
+        // The old leader is no longer known.
+        assertTrue(inFlight.finish(leader).isEmpty());
+        List<Request> followers = inFlight.finish(live);
+        assertEquals(Arrays.asList(last), followers);
+    }
+
+    @Test
+    public void promotingWithoutFollowersForgetsTheKey() {
+        Request leader = get("http://a.com/1");
+        inFlight.attach(leader);
+
+        assertNull(inFlight.promote(leader));
+        assertEquals(0, inFlight.size());
+    }
+
+    private static Request get(String url) {
+        JSONRequest request = new JSONRequest(null, null);
+        request.setURL(url);
+        request.setMethod(Request.GET);
+        return request;
+    }
+}
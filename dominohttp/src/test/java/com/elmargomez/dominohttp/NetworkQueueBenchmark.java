@@ -0,0 +1,164 @@
+/*
+ * Copyright 2016 Elmar Rhex Gomez.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.elmargomez.dominohttp;
+
+import com.elmargomez.dominohttp.request.JSONRequest;
+import com.elmargomez.dominohttp.request.Request;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures the throughput of {@link NetworkQueue} against a plain PriorityBlockingQueue,
+ * the queue the dispatchers shared before, with 4, 16 and 64 dispatchers. It is not run
+ * with the tests, start it with its main method:
+ * <pre>
+ * java -cp &lt;classes and test classes&gt; com.elmargomez.dominohttp.NetworkQueueBenchmark
+ * </pre>
+ * Two producers add 400,000 requests spread over 16 hosts and all five priorities. Each
+ * dispatcher polls, reads the ready count and releases the request, like
+ * {@link NetworkDispatcher} and {@link DispatcherPool} do, but without the network.
+ * <p>
+ * These numbers decided against sharding the queue per host with work stealing. They
+ * were measured on a single core JVM, in requests per second, the shard rows with the
+ * sharded queue before it was removed:
+ * <pre>
+ * dispatchers                         4        16        64
+ * NetworkQueue, one lock           728k      973k     1005k
+ * NetworkQueue, 1 shard            510k      747k      771k
+ * NetworkQueue, 4 shards           404k      790k      749k
+ * PriorityBlockingQueue           1762k     2204k     2107k
+ * </pre>
+ * The shards only added overhead. The PriorityBlockingQueue is faster, but it has no
+ * host limits, rate limits or aging. Run it on a multi-core device before revisiting
+ * the sharding.
+ */
+public class NetworkQueueBenchmark {
+    private static final int REQUESTS = 400000;
+    private static final int HOSTS = 16;
+    private static final int PRODUCERS = 2;
+    private static final int[] DISPATCHERS = {4, 16, 64};
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) throws Exception {
+        Request[] requests = new Request[REQUESTS];
+        Request.Priority[] priorities = Request.Priority.values();
+        for (int i = 0; i < REQUESTS; i++) {
+            JSONRequest request = new JSONRequest(null, null);
+            request.setURL("http://h" + (i % HOSTS) + ".com/" + i);
+            request.setSequence(i);
+            request.setPriority(priorities[i % priorities.length]);
+            request.getHost();
+            requests[i] = request;
+        }
+
+        for (int dispatchers : DISPATCHERS) {
+            // The first rounds warm the JIT up, only the last one is reported.
+            long networkQueue = 0;
+            long priorityQueue = 0;
+            for (int round = 0; round < ROUNDS; round++) {
+                networkQueue = run(new Queue(new NetworkQueue(null)), requests, dispatchers);
+                priorityQueue = run(new Queue(null), requests, dispatchers);
+            }
+            System.out.printf("%d dispatchers: NetworkQueue %.0f req/s,"
+                            + " PriorityBlockingQueue %.0f req/s%n", dispatchers,
+                    REQUESTS * 1e9 / networkQueue, REQUESTS * 1e9 / priorityQueue);
+        }
+    }
+
+    /**
+     * @return the time in nanoseconds it took to dispatch all the requests.
+     */
+    private static long run(final Queue queue, final Request[] requests, int dispatchers)
+            throws InterruptedException {
+        final AtomicInteger done = new AtomicInteger();
+        final CountDownLatch finished = new CountDownLatch(dispatchers);
+        long start = System.nanoTime();
+        for (int i = 0; i < dispatchers; i++) {
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        while (done.get() < REQUESTS) {
+                            if (queue.take() != null) {
+                                done.incrementAndGet();
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    finished.countDown();
+                }
+            }.start();
+        }
+        for (int p = 0; p < PRODUCERS; p++) {
+            final int first = p;
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = first; i < REQUESTS; i += PRODUCERS) {
+                            queue.add(requests[i]);
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }.start();
+        }
+        finished.await();
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * One of the two queues, behind the calls a dispatcher makes.
+     */
+    private static class Queue {
+        private final NetworkQueue networkQueue;
+        private final PriorityBlockingQueue<Request> priorityQueue =
+                new PriorityBlockingQueue<>();
+
+        Queue(NetworkQueue networkQueue) {
+            this.networkQueue = networkQueue;
+            if (networkQueue != null) {
+                networkQueue.setDefaultHostLimit(REQUESTS);
+            }
+        }
+
+        void add(Request request) throws InterruptedException {
+            if (networkQueue != null) {
+                networkQueue.add(request);
+            } else {
+                priorityQueue.add(request);
+            }
+        }
+
+        Request take() throws InterruptedException {
+            if (networkQueue == null) {
+                return priorityQueue.poll(10, TimeUnit.MILLISECONDS);
+            }
+            Request request = networkQueue.poll(10, TimeUnit.MILLISECONDS);
+            if (request != null) {
+                networkQueue.readyCount();
+                networkQueue.release(request);
+            }
+            return request;
+        }
+    }
+}
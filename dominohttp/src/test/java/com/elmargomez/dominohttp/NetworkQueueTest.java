@@ -0,0 +1,281 @@
+/*
+ * Copyright 2016 Elmar Rhex Gomez.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.elmargomez.dominohttp;
+
+import com.elmargomez.dominohttp.request.JSONRequest;
+import com.elmargomez.dominohttp.request.Request;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class NetworkQueueTest {
+
+    private final List<Request> rejected = new ArrayList<>();
+    private final List<Request> purged = new ArrayList<>();
+    private NetworkQueue queue;
+    private long sequence;
+
+    @Before
+    public void setUp() {
+        queue = new NetworkQueue(new OverflowPolicy.Listener() {
+            @Override
+            public void onRejected(Request request) {
+                rejected.add(request);
+            }
+
+            @Override
+            public void onPurged(Request request) {
+                purged.add(request);
+            }
+        });
+        queue.setDefaultHostLimit(100);
+    }
+
+    @Test
+    public void servesTheMostUrgentPriorityFirst() throws Exception {
+        Request low = add("a.com", Request.Priority.LOW);
+        Request high = add("a.com", Request.Priority.HIGH);
+        Request normal = add("a.com", Request.Priority.NORMAL);
+
+        assertSame(high, poll());
+        assertSame(normal, poll());
+        assertSame(low, poll());
+    }
+
+    @Test
+    public void keepsTheOrderOfEqualPriorities() throws Exception {
+        Request first = add("a.com", Request.Priority.NORMAL);
+        Request second = add("a.com", Request.Priority.NORMAL);
+
+        assertSame(first, poll());
+        assertSame(second, poll());
+    }
+
+    @Test
+    public void hostsTakeTurns() throws Exception {
+        Request a1 = add("a.com", Request.Priority.NORMAL);
+        Request a2 = add("a.com", Request.Priority.NORMAL);
+        Request b1 = add("b.com", Request.Priority.NORMAL);
+        Request b2 = add("b.com", Request.Priority.NORMAL);
+
+        assertSame(a1, poll());
+        assertSame(b1, poll());
+        assertSame(a2, poll());
+        assertSame(b2, poll());
+    }
+
+    @Test
+    public void overdueRequestOvertakesOtherHosts() throws Exception {
+        Request prefetch = request("a.com", Request.Priority.PREFETCH);
+        prefetch.setAgingDeadline(1);
+        queue.add(prefetch);
+        for (int i = 0; i < 5; i++) {
+            Request high = request("b.com", Request.Priority.HIGH);
+            high.setAgingDeadline(100 + i);
+            queue.add(high);
+        }
+
+        assertSame(prefetch, poll());
+    }
+
+    @Test
+    public void capsTheRequestsInFlightPerHost() throws Exception {
+        queue.setHostLimit("a.com", 1);
+        Request a1 = add("a.com", Request.Priority.HIGH);
+        Request a2 = add("a.com", Request.Priority.HIGH);
+        Request b1 = add("b.com", Request.Priority.LOW);
+
+        assertSame(a1, poll());
+        assertSame(b1, poll());
+        assertNull(poll());
+
+        queue.release(a1);
+        assertSame(a2, poll());
+    }
+
+    @Test
+    public void countsTheReadyRequests() throws Exception {
+        queue.setHostLimit("a.com", 2);
+        for (int i = 0; i < 5; i++) {
+            add("a.com", Request.Priority.NORMAL);
+        }
+        add("b.com", Request.Priority.NORMAL);
+        assertEquals(3, queue.readyCount());
+
+        Request request = poll();
+        assertEquals(2, queue.readyCount());
+
+        queue.release(request);
+        assertEquals(3, queue.readyCount());
+    }
+
+    @Test
+    public void holdsDelayedRequestsBack() throws Exception {
+        Request request = request("a.com", Request.Priority.NORMAL);
+        queue.addDelayed(request, 100);
+
+        assertNull(poll());
+        assertEquals(1, queue.size());
+
+        long start = System.nanoTime();
+        assertSame(request, queue.poll(5, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+    }
+
+    @Test
+    public void waitsForATokenOfARateLimitedHost() throws Exception {
+        queue.setHostRateLimit("a.com", 10, 1);
+        Request first = add("a.com", Request.Priority.NORMAL);
+        Request second = add("a.com", Request.Priority.NORMAL);
+
+        assertSame(first, poll());
+        assertNull(poll());
+        assertSame(second, queue.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void rejectsWhenFull() throws Exception {
+        queue.setCapacity(2, OverflowPolicy.REJECT);
+        add("a.com", Request.Priority.NORMAL);
+        add("a.com", Request.Priority.NORMAL);
+        Request third = add("a.com", Request.Priority.NORMAL);
+
+        assertEquals(1, rejected.size());
+        assertSame(third, rejected.get(0));
+        assertEquals(2, queue.size());
+        assertEquals(1, queue.getRejectedCount());
+    }
+
+    @Test
+    public void purgesCanceledRequestsBeforeRejecting() throws Exception {
+        queue.setCapacity(2, OverflowPolicy.REJECT);
+        Request canceled = add("a.com", Request.Priority.NORMAL);
+        add("a.com", Request.Priority.NORMAL);
+        canceled.setCanceled(true);
+        add("a.com", Request.Priority.NORMAL);
+
+        assertTrue(rejected.isEmpty());
+        assertEquals(1, purged.size());
+        assertSame(canceled, purged.get(0));
+        assertEquals(2, queue.size());
+    }
+
+    @Test
+    public void dropsTheLowestPriorityWhenFull() throws Exception {
+        queue.setCapacity(2, OverflowPolicy.DROP_LOWEST_PRIORITY);
+        Request low = add("a.com", Request.Priority.LOW);
+        Request high = add("b.com", Request.Priority.HIGH);
+        Request normal = add("a.com", Request.Priority.NORMAL);
+
+        assertEquals(1, rejected.size());
+        assertSame(low, rejected.get(0));
+        assertSame(high, poll());
+        assertSame(normal, poll());
+    }
+
+    @Test
+    public void drainsTheDelayedRequestsToo() throws Exception {
+        add("a.com", Request.Priority.NORMAL);
+        queue.addDelayed(request("a.com", Request.Priority.NORMAL), 60 * 1000);
+
+        List<Request> drained = new ArrayList<>();
+        assertEquals(2, queue.close(drained));
+        assertEquals(0, queue.size());
+        assertEquals(0, queue.readyCount());
+    }
+
+    @Test
+    public void refusesEverythingOnceClosed() throws Exception {
+        queue.close(new ArrayList<Request>());
+
+        assertFalse(queue.add(request("a.com", Request.Priority.NORMAL)));
+        assertFalse(queue.requeue(request("a.com", Request.Priority.NORMAL)));
+        assertFalse(queue.addDelayed(request("a.com", Request.Priority.NORMAL), 100));
+        assertEquals(0, queue.size());
+
+        queue.open();
+        assertTrue(queue.add(request("a.com", Request.Priority.NORMAL)));
+    }
+
+    @Test
+    public void refusesOnlyDelayedRequestsOnceShutDown() throws Exception {
+        queue.shutdown();
+
+        assertFalse(queue.addDelayed(request("a.com", Request.Priority.NORMAL), 100));
+        assertTrue(queue.addDelayed(request("a.com", Request.Priority.NORMAL), 0));
+        assertTrue(queue.add(request("a.com", Request.Priority.NORMAL)));
+        assertEquals(2, queue.size());
+    }
+
+    @Test
+    public void wakesABlockedProducerWhenClosed() throws Exception {
+        queue.setCapacity(1, OverflowPolicy.BLOCK);
+        add("a.com", Request.Priority.NORMAL);
+        final AtomicReference<Boolean> taken = new AtomicReference<>();
+        Thread producer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    taken.set(queue.add(request("a.com", Request.Priority.NORMAL)));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        producer.start();
+        while (producer.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+
+        List<Request> drained = new ArrayList<>();
+        queue.close(drained);
+        producer.join(5000);
+
+        assertEquals(Boolean.FALSE, taken.get());
+        assertEquals(1, drained.size());
+        assertEquals(0, queue.size());
+    }
+
+    private Request request(String host, Request.Priority priority) {
+        JSONRequest request = new JSONRequest(null, null);
+        request.setURL("http://" + host + "/" + sequence);
+        request.setPriority(priority);
+        request.setSequence(sequence++);
+        return request;
+    }
+
+    private Request add(String host, Request.Priority priority) throws InterruptedException {
+        Request request = request(host, priority);
+        queue.add(request);
+        return request;
+    }
+
+    private Request poll() throws InterruptedException {
+        return queue.poll(0, TimeUnit.MILLISECONDS);
+    }
+}
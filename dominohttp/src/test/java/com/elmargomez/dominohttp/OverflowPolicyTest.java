@@ -0,0 +1,81 @@
+/*
+ * Copyright 2016 Elmar Rhex Gomez.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.elmargomez.dominohttp;
+
+import com.elmargomez.dominohttp.request.JSONRequest;
+import com.elmargomez.dominohttp.request.Request;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertSame;
+
+public class OverflowPolicyTest {
+
+    private final Request oldLow = request(1, Request.Priority.LOW);
+    private final Request high = request(2, Request.Priority.HIGH);
+    private final Request newLow = request(3, Request.Priority.LOW);
+    private final List<Request> queued = Arrays.asList(high, oldLow, newLow);
+
+    @Test
+    public void rejectGivesUpTheIncomingRequest() {
+        Request incoming = request(4, Request.Priority.IMMEDIATE);
+        assertSame(incoming, OverflowPolicy.REJECT.selectVictim(queued, incoming));
+    }
+
+    @Test
+    public void dropLowestPriorityPicksTheNewestOfTheLowest() {
+        Request incoming = request(4, Request.Priority.NORMAL);
+        assertSame(newLow, OverflowPolicy.DROP_LOWEST_PRIORITY.selectVictim(queued, incoming));
+    }
+
+    @Test
+    public void dropLowestPriorityKeepsTheQueueIfTheIncomingIsLower() {
+        Request incoming = request(4, Request.Priority.PREFETCH);
+        assertSame(incoming, OverflowPolicy.DROP_LOWEST_PRIORITY.selectVictim(queued, incoming));
+    }
+
+    @Test
+    public void dropLowestPriorityPrefersTheNewestOnTies() {
+        Request incoming = request(4, Request.Priority.LOW);
+        assertSame(incoming, OverflowPolicy.DROP_LOWEST_PRIORITY.selectVictim(queued, incoming));
+    }
+
+    @Test
+    public void dropOldestPicksTheFirstQueued() {
+        Request incoming = request(4, Request.Priority.PREFETCH);
+        assertSame(oldLow, OverflowPolicy.DROP_OLDEST.selectVictim(queued, incoming));
+    }
+
+    @Test
+    public void dropOldestGivesUpTheIncomingIfNothingIsQueued() {
+        Request incoming = request(4, Request.Priority.NORMAL);
+        assertSame(incoming, OverflowPolicy.DROP_OLDEST.selectVictim(
+                Collections.<Request>emptyList(), incoming));
+    }
+
+    private static Request request(long sequence, Request.Priority priority) {
+        JSONRequest request = new JSONRequest(null, null);
+        request.setURL("http://a.com/" + sequence);
+        request.setPriority(priority);
+        request.setSequence(sequence);
+        return request;
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright 2016 Elmar Rhex Gomez.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.elmargomez.dominohttp;
+
+import com.elmargomez.dominohttp.request.JSONRequest;
+import com.elmargomez.dominohttp.request.Request;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the whole queue on the JVM, against a local server, with the responses delivered
+ * on the dispatcher threads.
+ */
+public class RequestQueueTest {
+
+    private final BlockingQueue<String> results = new LinkedBlockingQueue<>();
+    private final BlockingQueue<Thread> threads = new LinkedBlockingQueue<>();
+    private final CountDownLatch received = new CountDownLatch(1);
+    private final AtomicInteger hits = new AtomicInteger();
+    private HttpServer server;
+    private File cacheDir;
+    private RequestQueue queue;
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/slow", new Responder(200, 100));
+        server.createContext("/unavailable", new Responder(503, 300));
+        server.createContext("/stale-if-error",
+                new FlakyResponder("max-age=0, stale-if-error=60"));
+        server.createContext("/stale-while-revalidate",
+                new FlakyResponder("max-age=0, stale-while-revalidate=60"));
+        server.createContext("/expired", new FlakyResponder("max-age=0"));
+        server.createContext("/fresh", new FlakyResponder("max-age=60"));
+        server.start();
+
+        cacheDir = File.createTempFile("domino", "cache");
+        cacheDir.delete();
+        queue = new RequestQueue(new Network(), new FileCache(cacheDir), 1, 1,
+                DeliveryExecutors.direct());
+        queue.start();
+    }
+
+    @After
+    public void tearDown() {
+        queue.stop();
+        server.stop(0);
+        File[] files = cacheDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        cacheDir.delete();
+    }
+
+    @Test
+    public void deliversOnTheNetworkDispatcher() throws Exception {
+        queue.add(get("/slow"));
+
+        assertEquals("success slow", results.poll(5, TimeUnit.SECONDS));
+        assertTrue(threads.poll(0, TimeUnit.SECONDS) instanceof NetworkDispatcher);
+    }
+
+    @Test
+    public void answersAFreshResponseFromTheCache() throws Exception {
+        queue.add(cached("/fresh"));
+        assertEquals("success fresh", results.poll(5, TimeUnit.SECONDS));
+        assertTrue(threads.poll(0, TimeUnit.SECONDS) instanceof NetworkDispatcher);
+
+        queue.add(cached("/fresh"));
+
+        assertEquals("success fresh", results.poll(5, TimeUnit.SECONDS));
+        assertTrue(threads.poll(0, TimeUnit.SECONDS) instanceof CacheDispatcher);
+        assertEquals(1, hits.get());
+    }
+
+    @Test
+    public void drainsTheQueuedRequestsOnStop() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            queue.add(get("/slow?" + i));
+        }
+
+        RequestQueue.DrainResult result = queue.stop(5000);
+
+        assertEquals(3, result.drained);
+        assertEquals(0, result.dropped);
+        for (int i = 0; i < 3; i++) {
+            assertEquals("success slow", results.poll(0, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void failsARetryOfARequestRunningPastTheStop() throws Exception {
+        Request request = get("/unavailable");
+        request.setRetryCount(3);
+        request.setRetryPolicy(new RetryPolicy().setBaseDelay(10));
+        queue.add(request);
+        assertTrue(received.await(5, TimeUnit.SECONDS));
+
+        RequestQueue.DrainResult result = queue.stop(0);
+
+        // It was neither answered nor dropped when the queue stopped.
+        assertEquals(0, result.drained);
+        assertEquals(0, result.dropped);
+        assertEquals("error " + Request.ERROR_QUEUE_STOPPED, results.poll(5, TimeUnit.SECONDS));
+        assertNull(results.poll(500, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void failsRequestsAddedAfterTheStop() throws Exception {
+        queue.stop();
+        queue.add(get("/slow"));
+
+        assertEquals("error " + Request.ERROR_QUEUE_STOPPED, results.poll(0, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void servesTheStaleEntryWhenTheRevalidationFails() throws Exception {
+        queue.add(cached("/stale-if-error"));
+        assertEquals("success stale-if-error", results.poll(5, TimeUnit.SECONDS));
+        Thread.sleep(10);
+
+        queue.add(cached("/stale-if-error"));
+
+        assertEquals("success stale-if-error", results.poll(5, TimeUnit.SECONDS));
+        assertEquals(2, hits.get());
+    }
+
+    @Test
+    public void aFailedRefreshDoesNotAnswerTheRequestAgain() throws Exception {
+        queue.add(cached("/stale-while-revalidate"));
+        assertEquals("success stale-while-revalidate", results.poll(5, TimeUnit.SECONDS));
+        Thread.sleep(10);
+
+        queue.add(cached("/stale-while-revalidate"));
+
+        assertEquals("success stale-while-revalidate", results.poll(5, TimeUnit.SECONDS));
+        assertNull(results.poll(500, TimeUnit.MILLISECONDS));
+        assertEquals(2, hits.get());
+    }
+
+    @Test
+    public void anOpenCircuitAnswersFromTheStaleEntry() throws Exception {
+        queue.getCircuitBreaker().setFailureThreshold(1);
+        queue.add(cached("/expired"));
+        assertEquals("success expired", results.poll(5, TimeUnit.SECONDS));
+        Thread.sleep(10);
+
+        queue.add(cached("/expired"));
+        assertTrue(results.poll(5, TimeUnit.SECONDS).startsWith("error"));
+        assertEquals(CircuitBreaker.State.OPEN, queue.getCircuitBreaker().getState("127.0.0.1"));
+
+        queue.add(cached("/expired"));
+
+        assertEquals("success expired", results.poll(5, TimeUnit.SECONDS));
+        assertEquals(2, hits.get());
+    }
+
+    private Request cached(String path) {
+        Request request = get(path);
+        request.setShouldCached(true);
+        return request;
+    }
+
+    private Request get(String path) {
+        JSONRequest request = new JSONRequest(new Request.SuccessListener<String>() {
+            @Override
+            public void response(Request request, String s) {
+                threads.add(Thread.currentThread());
+                results.add("success " + s);
+            }
+        }, new Request.FailedListeners() {
+            @Override
+            public void error(Request request, String error) {
+                results.add("error " + error);
+            }
+        });
+        request.setURL("http://127.0.0.1:" + server.getAddress().getPort() + path);
+        request.setMethod(Request.GET);
+        request.setShouldCached(false);
+        return request;
+    }
+
+    /**
+     * Answers the first request with a cacheable body, and the next ones with a 503.
+     */
+    private class FlakyResponder implements HttpHandler {
+        private final String cacheControl;
+
+        FlakyResponder(String cacheControl) {
+            this.cacheControl = cacheControl;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            int status = hits.incrementAndGet() == 1 ? 200 : 503;
+            byte[] body = exchange.getHttpContext().getPath().substring(1).getBytes("UTF-8");
+            exchange.getResponseHeaders().set("Cache-Control", cacheControl);
+            exchange.sendResponseHeaders(status, body.length);
+            OutputStream stream = exchange.getResponseBody();
+            stream.write(body);
+            stream.close();
+        }
+    }
+
+    private class Responder implements HttpHandler {
+        private final int status;
+        private final long delay;
+
+        Responder(int status, long delay) {
+            this.status = status;
+            this.delay = delay;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            received.countDown();
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            byte[] body = exchange.getHttpContext().getPath().substring(1).getBytes("UTF-8");
+            exchange.sendResponseHeaders(status, body.length);
+            OutputStream stream = exchange.getResponseBody();
+            stream.write(body);
+            stream.close();
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2016 Elmar Rhex Gomez.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.elmargomez.dominohttp;
+
+import com.elmargomez.dominohttp.request.JSONRequest;
+import com.elmargomez.dominohttp.request.Request;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ResponseSenderTest {
+
+    private final List<Runnable> posted = new ArrayList<>();
+    private final List<String> calls = new ArrayList<>();
+    private final ResponseSender sender = new ResponseSender(new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            posted.add(command);
+        }
+    });
+
+    @Test
+    public void deliversToLiveRequests() {
+        sender.success(request(), "ok".getBytes());
+        sender.failure(request(), "failed");
+        runPosted();
+
+        assertEquals(2, calls.size());
+        assertEquals("success ok", calls.get(0));
+        assertEquals("error failed", calls.get(1));
+    }
+
+    @Test
+    public void skipsRequestsCanceledBeforeDelivery() {
+        Request success = request();
+        Request failure = request();
+        success.setCanceled(true);
+        failure.setCanceled(true);
+
+        sender.success(success, "ok".getBytes());
+        sender.failure(failure, "failed");
+        sender.success(Collections.singletonList(success), "ok".getBytes());
+
+        assertTrue(posted.isEmpty());
+    }
+
+    @Test
+    public void skipsRequestsCanceledAfterThePost() {
+        Request success = request();
+        Request failure = request();
+        sender.success(success, "ok".getBytes());
+        sender.failure(failure, "failed");
+
+        success.setCanceled(true);
+        failure.setCanceled(true);
+        runPosted();
+
+        assertTrue(calls.isEmpty());
+    }
+
+    @Test
+    public void skipsCanceledRequestsOfABatch() {
+        final List<Request> batched = new ArrayList<>();
+        sender.setBatchInterval(ResponseSender.FRAME_INTERVAL);
+        sender.setBatchListener(new ResponseSender.BatchListener() {
+            @Override
+            public void onBatch(List<Request> requests) {
+                batched.addAll(requests);
+            }
+        });
+        Request live = request();
+        Request canceled = request();
+        sender.success(live, "ok".getBytes());
+        sender.success(canceled, "ok".getBytes());
+
+        canceled.setCanceled(true);
+        runPosted();
+
+        assertEquals(1, calls.size());
+        assertEquals(Collections.singletonList(live), batched);
+    }
+
+    @Test
+    public void failsTheLeaderAndItsFollowers() {
+        Request leader = request();
+        sender.failure(leader, Arrays.asList(request(), request()), "failed");
+        runPosted();
+
+        assertEquals(Arrays.asList("error failed", "error failed", "error failed"), calls);
+    }
+
+    @Test
+    public void answersTheFollowersOfAFailedRefreshFromTheCache() {
+        Request leader = request();
+        Cache.Data entry = new Cache.Data();
+        entry.data = "cached".getBytes();
+        leader.setCacheEntry(entry);
+        leader.setRefreshing(true);
+
+        sender.failure(leader, Arrays.asList(request(), request()), "failed");
+        runPosted();
+
+        // The leader was already answered with the entry.
+        assertEquals(Arrays.asList("success cached", "success cached"), calls);
+    }
+
+    private void runPosted() {
+        for (Runnable runnable : new ArrayList<>(posted)) {
+            runnable.run();
+        }
+        posted.clear();
+    }
+
+    private Request request() {
+        JSONRequest request = new JSONRequest(new Request.SuccessListener<String>() {
+            @Override
+            public void response(Request request, String s) {
+                calls.add("success " + s);
+            }
+        }, new Request.FailedListeners() {
+            @Override
+            public void error(Request request, String string) {
+                calls.add("error " + string);
+            }
+        });
+        request.setURL("http://a.com/");
+        return request;
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2016 Elmar Rhex Gomez.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.elmargomez.dominohttp;
+
+import org.junit.Test;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RetryPolicyTest {
+
+    @Test
+    public void growsTheDelayExponentially() {
+        RetryPolicy policy = new RetryPolicy().setBaseDelay(100).setMultiplier(2)
+                .setMaxDelay(10000).setJitter(0);
+
+        assertEquals(100, policy.getDelay(0));
+        assertEquals(200, policy.getDelay(1));
+        assertEquals(400, policy.getDelay(2));
+        assertEquals(800, policy.getDelay(3));
+    }
+
+    @Test
+    public void capsTheDelay() {
+        RetryPolicy policy = new RetryPolicy().setBaseDelay(100).setMultiplier(10)
+                .setMaxDelay(5000).setJitter(0);
+
+        assertEquals(5000, policy.getDelay(5));
+        assertEquals(5000, policy.getDelay(100));
+    }
+
+    @Test
+    public void jitterOnlyShortensTheDelay() {
+        RetryPolicy policy = new RetryPolicy().setBaseDelay(1000).setJitter(0.5f);
+
+        for (int i = 0; i < 1000; i++) {
+            long delay = policy.getDelay(0);
+            assertTrue(delay >= 500 && delay <= 1000);
+        }
+    }
+
+    @Test
+    public void retriesTheTransientStatusCodes() {
+        RetryPolicy policy = new RetryPolicy();
+
+        assertTrue(policy.isRetryable(new HttpException(503, "Unavailable")));
+        assertTrue(policy.isRetryable(new HttpException(429, "Too many requests")));
+        assertFalse(policy.isRetryable(new HttpException(404, "Not found")));
+        assertFalse(policy.isRetryable(new HttpException(400, "Bad request")));
+    }
+
+    @Test
+    public void replacesTheStatusCodes() {
+        RetryPolicy policy = new RetryPolicy().setRetryableStatusCodes(404);
+
+        assertTrue(policy.isRetryable(new HttpException(404, "Not found")));
+        assertFalse(policy.isRetryable(new HttpException(503, "Unavailable")));
+    }
+
+    @Test
+    public void retriesTransportErrors() {
+        assertTrue(new RetryPolicy().isRetryable(new IOException("reset")));
+    }
+
+    @Test
+    public void replacesTheExceptions() {
+        RetryPolicy policy = new RetryPolicy()
+                .setRetryableExceptions(SocketTimeoutException.class);
+
+        assertTrue(policy.isRetryable(new SocketTimeoutException()));
+        assertFalse(policy.isRetryable(new FileNotFoundException()));
+    }
+
+    @Test
+    public void neverRetriesAMalformedBody() {
+        assertFalse(new RetryPolicy().isRetryable(new ParseException(new IOException("bad"))));
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2016 Elmar Rhex Gomez.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.elmargomez.dominohttp;
+
+import com.elmargomez.dominohttp.request.JSONRequest;
+import com.elmargomez.dominohttp.request.Request;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TagIndexTest {
+
+    private final TagIndex index = new TagIndex();
+
+    @Test
+    public void cancelsEveryRequestOfTheTag() {
+        Request first = request("list");
+        Request second = request("list");
+        Request other = request("detail");
+        index.track(first);
+        index.track(second);
+        index.track(other);
+
+        assertEquals(2, index.cancelAll("list"));
+        assertTrue(first.isCanceled());
+        assertTrue(second.isCanceled());
+        assertFalse(other.isCanceled());
+    }
+
+    @Test
+    public void doesNotCancelUntrackedRequests() {
+        Request delivered = request("list");
+        Request live = request("list");
+        index.track(delivered);
+        index.track(live);
+        index.untrack(delivered);
+
+        assertEquals(1, index.cancelAll("list"));
+        assertFalse(delivered.isCanceled());
+        assertTrue(live.isCanceled());
+    }
+
+    @Test
+    public void ignoresRequestsWithoutATag() {
+        Request request = request(null);
+        index.track(request);
+
+        assertEquals(0, index.cancelAll(null));
+        assertFalse(request.isCanceled());
+    }
+
+    @Test
+    public void cancelsATagOnlyOnce() {
+        index.track(request("list"));
+
+        assertEquals(1, index.cancelAll("list"));
+        assertEquals(0, index.cancelAll("list"));
+    }
+
+    private static Request request(Object tag) {
+        JSONRequest request = new JSONRequest(null, null);
+        request.setURL("http://a.com/");
+        request.setTag(tag);
+        return request;
+    }
+}
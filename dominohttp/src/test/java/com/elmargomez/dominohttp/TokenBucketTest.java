@@ -0,0 +1,68 @@
+/*
+ * Copyright 2016 Elmar Rhex Gomez.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.elmargomez.dominohttp;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TokenBucketTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void startsFullAndAllowsABurst() {
+        TokenBucket bucket = new TokenBucket(1, 3);
+        long now = System.nanoTime();
+
+        assertEquals(3, bucket.available(now));
+        assertTrue(bucket.tryAcquire(now));
+        assertTrue(bucket.tryAcquire(now));
+        assertTrue(bucket.tryAcquire(now));
+        assertFalse(bucket.tryAcquire(now));
+    }
+
+    @Test
+    public void refillsAtTheRate() {
+        TokenBucket bucket = new TokenBucket(2, 1);
+        long now = System.nanoTime();
+        assertTrue(bucket.tryAcquire(now));
+
+        long wait = bucket.nanosUntilToken(now);
+        assertEquals(SECOND / 2, wait, 1);
+        assertFalse(bucket.tryAcquire(now + SECOND / 4));
+        assertTrue(bucket.tryAcquire(now + wait));
+    }
+
+    @Test
+    public void neverHoldsMoreThanTheBurst() {
+        TokenBucket bucket = new TokenBucket(10, 2);
+        long now = System.nanoTime();
+
+        assertEquals(2, bucket.available(now + 60 * SECOND));
+        assertEquals(0, bucket.nanosUntilToken(now + 60 * SECOND));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAZeroRate() {
+        new TokenBucket(0, 1);
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2016 Elmar Rhex Gomez.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.elmargomez.dominohttp;
+
+import com.elmargomez.dominohttp.request.JSONRequest;
+import com.elmargomez.dominohttp.request.Request;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class VariantsTest {
+
+    private final MemoryCache cache = new MemoryCache();
+
+    @Test
+    public void storesAResponseThatDoesNotVaryUnderTheCacheKey() {
+        Request request = request();
+
+        assertEquals(request.getCacheKey(), Variants.prepareKey(cache, request,
+                Collections.<String, String>emptyMap()));
+        assertTrue(cache.entries.isEmpty());
+    }
+
+    @Test
+    public void ignoresAcceptEncoding() {
+        Request request = request();
+
+        assertEquals(request.getCacheKey(),
+                Variants.key(request, vary("Accept-Encoding")));
+    }
+
+    @Test
+    public void findsTheVariantMatchingTheRequestHeaders() {
+        Request english = request("Accept-Language", "en");
+        Request german = request("Accept-Language", "de");
+        Cache.Data englishData = put(english, vary("Accept-Language"));
+        Cache.Data germanData = put(german, vary("Accept-Language"));
+
+        assertSame(englishData, Variants.lookup(cache, request("Accept-Language", "en")));
+        assertSame(germanData, Variants.lookup(cache, request("Accept-Language", "de")));
+        assertNull(Variants.lookup(cache, request("Accept-Language", "fr")));
+    }
+
+    @Test
+    public void findsNothingForAnUncachedUrl() {
+        assertNull(Variants.lookupKey(cache, request()));
+    }
+
+    @Test
+    public void authorizationAlwaysSelectsAVariant() {
+        Request alice = request("Authorization", "Bearer a");
+        Request bob = request("Authorization", "Bearer b");
+
+        String key = Variants.key(alice, Collections.<String, String>emptyMap());
+
+        assertNotEquals(alice.getCacheKey(), key);
+        assertNotEquals(key, Variants.key(bob, Collections.<String, String>emptyMap()));
+        assertFalse(key.contains("Bearer"));
+    }
+
+    @Test
+    public void normalizesTheHeaderValues() {
+        Map<String, String> headers = vary("Accept-Language");
+
+        assertEquals(Variants.key(request("Accept-Language", "en,de"), headers),
+                Variants.key(request("Accept-Language", "  en ,  de "), headers));
+        assertNotEquals(Variants.key(request("Accept-Language", "en de"), headers),
+                Variants.key(request("Accept-Language", "ende"), headers));
+    }
+
+    @Test
+    public void namesTheVaryingHeadersWhateverTheirCaseAndOrder() {
+        Request request = request("Accept-Language", "en");
+        request.addHeader("Accept", "text/plain");
+
+        assertEquals(Variants.key(request, vary("Accept-Language, Accept")),
+                Variants.key(request, vary("accept, ACCEPT-LANGUAGE")));
+    }
+
+    private Cache.Data put(Request request, Map<String, String> responseHeaders) {
+        Cache.Data data = new Cache.Data();
+        data.header = responseHeaders;
+        data.data = new byte[0];
+        cache.put(Variants.prepareKey(cache, request, responseHeaders), data);
+        return data;
+    }
+
+    private Map<String, String> vary(String names) {
+        return Collections.singletonMap("Vary", names);
+    }
+
+    private Request request(String name, String value) {
+        Request request = request();
+        request.addHeader(name, value);
+        return request;
+    }
+
+    private Request request() {
+        JSONRequest request = new JSONRequest(null, null);
+        request.setURL("http://a.com/");
+        request.setMethod(Request.GET);
+        return request;
+    }
+
+    private static class MemoryCache implements Cache {
+        private final Map<String, Data> entries = new HashMap<>();
+
+        @Override
+        public void put(String key, Data data) {
+            entries.put(key, data);
+        }
+
+        @Override
+        public Data get(String cacheKey) {
+            return entries.get(cacheKey);
+        }
+
+        @Override
+        public Data getMetadata(String cacheKey) {
+            return entries.get(cacheKey);
+        }
+
+        @Override
+        public InputStream openStream(String cacheKey) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void remove(String k) {
+            entries.remove(k);
+        }
+
+        @Override
+        public void refresh(String key, Data data) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void initialize() {
+        }
+
+        @Override
+        public Writer edit(String key, Data data) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+    }
+}